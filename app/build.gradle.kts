@@ -30,6 +30,10 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        // Audio code logs through android.util.Log, which throws in local tests otherwise
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
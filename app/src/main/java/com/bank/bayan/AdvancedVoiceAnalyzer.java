@@ -1,9 +1,15 @@
 package com.bank.bayan;
 
 import android.util.Log;
-import java.util.ArrayList;
+
+import com.bank.bayan.audio.AudioProcessingScheduler;
+import com.bank.bayan.audio.DctTable;
+import com.bank.bayan.audio.DynamicFeatureWindow;
+import com.bank.bayan.audio.FFT;
+import com.bank.bayan.audio.MelFilterBank;
+import com.bank.bayan.audio.PitchTracker;
+
 import java.util.Arrays;
-import java.util.List;
 
 public class AdvancedVoiceAnalyzer {
 
@@ -13,91 +19,273 @@ public class AdvancedVoiceAnalyzer {
     private static final double PRE_EMPHASIS = 0.97;
     private static final int FRAME_SIZE = 1024;
     private static final int FRAME_SHIFT = 512;
+    private static final double SILENCE_THRESHOLD = 0.02;
+    private static final int SILENCE_FRAME = 160;
+    private static final int DELTA_WINDOW = 2;
+    public static final int FEATURE_DIMENSION = NUM_MFCC * 3;
+    private static final double TEMPLATE_DECAY = 0.9;
+    private static final double MAX_TEMPLATE_FRAMES = 3000;
+    private static final double ROLLOFF_FRACTION = 0.85;
+    private static final double MIN_F0 = 60.0;
+    private static final double MAX_F0 = 400.0;
+    private static final double NEUTRAL_SIMILARITY = 0.5;
+
+    private final FrameBuffers frameBuffers = new FrameBuffers();
+    private final DynamicFeatureWindow featureStream = new DynamicFeatureWindow(NUM_MFCC, DELTA_WINDOW);
+    private final float[] streamMfcc = new float[NUM_MFCC];
+    private float[] preprocessBuffer = new float[0];
 
     public float[] preprocessAudio(float[] audioData) {
         if (audioData == null || audioData.length == 0) {
             return new float[0];
         }
 
-        float[] preEmphasized = applyPreEmphasis(audioData);
+        if (preprocessBuffer.length < audioData.length) {
+            preprocessBuffer = new float[audioData.length];
+        }
+        int length = preprocessAudio(audioData, audioData.length, preprocessBuffer);
+        return Arrays.copyOf(preprocessBuffer, length);
+    }
+
+    /**
+     * Pre-emphasis, Hamming window, peak normalization and silence removal fused
+     * into two passes over audioData[0, length), written to out, which must hold
+     * at least length values and may be audioData itself. Silence is removed in
+     * whole frames of SILENCE_FRAME samples.
+     *
+     * @return number of samples written to out
+     */
+    public int preprocessAudio(float[] audioData, int length, float[] out) {
+        if (audioData == null || length <= 0) {
+            return 0;
+        }
+
+        // Pass 1: pre-emphasis and window, tracking the peak. The window's
+        // cosine is advanced by rotation instead of calling Math.cos per sample.
+        double step = length > 1 ? 2 * Math.PI / (length - 1) : 0.0;
+        double stepCos = Math.cos(step);
+        double stepSin = Math.sin(step);
+        double cos = 1.0;
+        double sin = 0.0;
+
+        float previous = audioData[0];
+        float peak = 0;
+        for (int i = 0; i < length; i++) {
+            float current = audioData[i];
+            float emphasized = i == 0 ? current : current - (float) (PRE_EMPHASIS * previous);
+            previous = current;
+
+            float windowed = (float) (emphasized * (0.54 - 0.46 * cos));
+            out[i] = windowed;
+            peak = Math.max(peak, Math.abs(windowed));
+
+            double nextCos = cos * stepCos - sin * stepSin;
+            sin = sin * stepCos + cos * stepSin;
+            cos = nextCos;
+        }
+
+        if (peak == 0) {
+            return length;
+        }
+
+        // Pass 2: normalize and keep only frames that reach the silence threshold.
+        // Kept frames are compacted towards the front of out in place.
+        float scale = 1f / peak;
+        float gate = (float) (SILENCE_THRESHOLD * peak);
+        int written = 0;
+        for (int start = 0; start < length; start += SILENCE_FRAME) {
+            int end = Math.min(start + SILENCE_FRAME, length);
+
+            boolean active = false;
+            for (int i = start; i < end && !active; i++) {
+                active = Math.abs(out[i]) > gate;
+            }
+            if (!active) {
+                continue;
+            }
 
-        float[] windowed = applyHammingWindow(preEmphasized);
+            for (int i = start; i < end; i++) {
+                out[written++] = out[i] * scale;
+            }
+        }
 
-        float[] normalized = normalizeAmplitude(windowed);
+        if (written == 0) {
+            // No activity detected, keep the whole normalized signal
+            for (int i = 0; i < length; i++) {
+                out[i] *= scale;
+            }
+            return length;
+        }
 
-        return removeSilence(normalized);
+        return written;
     }
 
     /**
-     * Extract MFCC features from audio frame
+     * Extract the static MFCC features of a single audio frame. Delta and
+     * delta-delta features need neighbouring frames, see extractFeatureSequence
+     * and pushFeatureFrame.
      */
     public float[] extractMFCC(float[] audioFrame, int sampleRate) {
         if (audioFrame == null || audioFrame.length < 64) {
             return new float[0];
         }
 
+        float[] mfcc = new float[NUM_MFCC];
+        if (!extractMFCC(audioFrame, sampleRate, mfcc)) {
+            return new float[0];
+        }
+
+        return mfcc;
+    }
+
+    /**
+     * Frame a whole recording and return one FEATURE_DIMENSION vector per frame:
+     * 13 MFCC followed by their delta and delta-delta coefficients.
+     */
+    public FeatureMatrix extractFeatureSequence(float[] audioData, int sampleRate) {
+        return extractFeatureSequence(audioData, sampleRate, null);
+    }
+
+    /**
+     * As extractFeatureSequence, also adding every feature vector and every
+     * frame's F0, centroid and rolloff to statistics, ready for createVoiceTemplate.
+     */
+    public FeatureMatrix extractFeatureSequence(float[] audioData, int sampleRate, VoiceStatistics statistics) {
+        int frameCount = audioData == null || audioData.length < FRAME_SIZE
+                ? 0 : (audioData.length - FRAME_SIZE) / FRAME_SHIFT + 1;
+        FeatureMatrix sequence = new FeatureMatrix(FEATURE_DIMENSION, Math.max(1, frameCount));
+        if (frameCount == 0) {
+            return sequence;
+        }
+
+        DynamicFeatureWindow window = new DynamicFeatureWindow(NUM_MFCC, DELTA_WINDOW);
+        float[] frame = new float[FRAME_SIZE];
+        float[] mfcc = new float[NUM_MFCC];
+        float[] features = new float[FEATURE_DIMENSION];
+
+        for (int start = 0; start + FRAME_SIZE <= audioData.length; start += FRAME_SHIFT) {
+            AudioProcessingScheduler.checkCancelled();
+            System.arraycopy(audioData, start, frame, 0, FRAME_SIZE);
+            if (!extractMFCC(frame, sampleRate, mfcc)) {
+                continue;
+            }
+            if (statistics != null) {
+                statistics.addSpectralFrame(getFramePitch(), getFrameSpectralCentroid(), getFrameSpectralRolloff());
+            }
+            if (window.push(mfcc, features)) {
+                sequence.addRow(features);
+                if (statistics != null) statistics.add(features);
+            }
+        }
+        while (window.flush(features)) {
+            sequence.addRow(features);
+            if (statistics != null) statistics.add(features);
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Streaming counterpart of extractFeatureSequence: feed consecutive frames
+     * and receive the FEATURE_DIMENSION vector of the frame pushed
+     * 2 * DELTA_WINDOW calls earlier.
+     *
+     * @return true if out was filled
+     */
+    public boolean pushFeatureFrame(float[] audioFrame, int sampleRate, float[] out) {
+        return extractMFCC(audioFrame, sampleRate, streamMfcc) && featureStream.push(streamMfcc, out);
+    }
+
+    /**
+     * Drain frames still held back by the delta window; call until it returns false.
+     */
+    public boolean flushFeatureFrame(float[] out) {
+        return featureStream.flush(out);
+    }
+
+    public void resetFeatureStream() {
+        featureStream.reset();
+    }
+
+    /**
+     * Extract MFCC features into a caller-owned buffer of NUM_MFCC values.
+     * Scratch buffers are reused between calls, so this allocates nothing per frame.
+     */
+    public boolean extractMFCC(float[] audioFrame, int sampleRate, float[] out) {
+        if (audioFrame == null || audioFrame.length < 64 || out == null || out.length < NUM_MFCC) {
+            return false;
+        }
+
+        return extractMFCC(audioFrame, 0, audioFrame.length, sampleRate, out, 0, frameBuffers);
+    }
+
+    private static boolean extractMFCC(float[] audio, int offset, int length, int sampleRate,
+                                       float[] out, int outOffset, FrameBuffers buffers) {
         try {
+            buffers.ensureCapacity(length, sampleRate);
+
             // 1. Apply FFT
-            Complex[] fftResult = performFFT(audioFrame);
+            performFFT(audio, offset, length, buffers);
 
-            // 2. Calculate power spectrum
-            double[] powerSpectrum = calculatePowerSpectrum(fftResult);
+            // 2. Calculate power spectrum, with centroid and rolloff from the same bins
+            calculatePowerSpectrum(buffers);
+            calculateSpectralMeasures(buffers);
+            buffers.pitch = buffers.pitchTracker.process(audio, offset);
 
             // 3. Apply mel filter bank
-            double[] melFiltered = applyMelFilterBank(powerSpectrum, sampleRate);
+            buffers.melBank.apply(buffers.power, buffers.mel);
 
             // 4. Apply logarithm
-            double[] logMel = applyLogarithm(melFiltered);
+            applyLogarithm(buffers.mel);
 
             // 5. Apply DCT to get MFCC
-            float[] mfcc = applyDCT(logMel);
-
-            // 6. Add delta and delta-delta features
-            return addDynamicFeatures(mfcc);
+            buffers.dct.transform(buffers.mel, out, outOffset);
+            return true;
 
         } catch (Exception e) {
             Log.e(TAG, "خطأ في استخراج MFCC", e);
-            return new float[0];
+            return false;
         }
     }
 
     /**
      * Create voice template from multiple recordings
      */
-    public VoiceTemplate createVoiceTemplate(List<float[]> recordedFrames) {
+    public VoiceTemplate createVoiceTemplate(FeatureMatrix recordedFrames) {
         if (recordedFrames == null || recordedFrames.isEmpty()) {
             return null;
         }
 
-        Log.d(TAG, "إنشاء قالب صوتي من " + recordedFrames.size() + " إطار");
+        VoiceStatistics statistics = new VoiceStatistics(recordedFrames.getDimension());
+        statistics.addAll(recordedFrames);
+        return createVoiceTemplate(statistics);
+    }
 
-        try {
-            // Calculate statistical features
-            float[] meanFeatures = calculateMeanFeatures(recordedFrames);
-            float[] stdFeatures = calculateStdFeatures(recordedFrames, meanFeatures);
-            float[] minFeatures = calculateMinFeatures(recordedFrames);
-            float[] maxFeatures = calculateMaxFeatures(recordedFrames);
-
-            // Calculate additional discriminative features
-            float fundamentalFreq = calculateFundamentalFrequency(recordedFrames);
-            float spectralCentroid = calculateSpectralCentroid(recordedFrames);
-            float spectralRolloff = calculateSpectralRolloff(recordedFrames);
-            float zeroCrossingRate = calculateZeroCrossingRate(recordedFrames);
-            float mfccVariance = calculateMfccVariance(recordedFrames);
+    /**
+     * Create voice template from statistics accumulated while frames were produced
+     */
+    public VoiceTemplate createVoiceTemplate(VoiceStatistics statistics) {
+        if (statistics == null || statistics.getCount() == 0) {
+            return null;
+        }
 
+        Log.d(TAG, "إنشاء قالب صوتي من " + statistics.getCount() + " إطار");
+
+        try {
             // Create voice template
             VoiceTemplate template = new VoiceTemplate();
-            template.setMeanFeatures(meanFeatures);
-            template.setStdFeatures(stdFeatures);
-            template.setMinFeatures(minFeatures);
-            template.setMaxFeatures(maxFeatures);
-            template.setFundamentalFrequency(fundamentalFreq);
-            template.setSpectralCentroid(spectralCentroid);
-            template.setSpectralRolloff(spectralRolloff);
-            template.setZeroCrossingRate(zeroCrossingRate);
-            template.setMfccVariance(mfccVariance);
-            template.setFrameCount(recordedFrames.size());
-            template.setQualityScore(calculateQualityScore(recordedFrames));
+            template.setMeanFeatures(statistics.getMean());
+            template.setStdFeatures(statistics.getStd());
+            template.setMinFeatures(statistics.getMin());
+            template.setMaxFeatures(statistics.getMax());
+            template.setFundamentalFrequency(statistics.getFundamentalFrequency());
+            template.setSpectralCentroid(statistics.getSpectralCentroid());
+            template.setSpectralRolloff(statistics.getSpectralRolloff());
+            template.setZeroCrossingRate(statistics.getZeroCrossingRate());
+            template.setMfccVariance(statistics.getMeanVariance());
+            template.setFrameCount((int) statistics.getCount());
+            template.setQualityScore(statistics.getQualityScore());
+            template.setStatistics(statistics);
 
             Log.d(TAG, "تم إنشاء قالب صوتي بجودة: " + template.getQualityScore());
             return template;
@@ -108,6 +296,38 @@ public class AdvancedVoiceAnalyzer {
         }
     }
 
+    /**
+     * Fold the statistics of a successful verification into a stored template.
+     * Older sessions are decayed and the total weight is capped, so the cost is
+     * O(dimension) and the template keeps tracking the speaker's current voice.
+     * A template without its statistics (e.g. one decoded by VoiceCodec) is
+     * returned unchanged rather than replaced by the session alone.
+     */
+    public VoiceTemplate refineVoiceTemplate(VoiceTemplate template, VoiceStatistics session) {
+        if (template == null) {
+            return createVoiceTemplate(session);
+        }
+        if (template.getStatistics() == null) {
+            Log.w(TAG, "القالب الصوتي بدون إحصائيات، لن يتم تحديثه");
+            return template;
+        }
+        if (session == null || session.getCount() == 0) {
+            return template;
+        }
+
+        try {
+            VoiceStatistics merged = template.getStatistics().copy();
+            merged.decay(TEMPLATE_DECAY);
+            merged.merge(session);
+            merged.capWeight(MAX_TEMPLATE_FRAMES);
+            return createVoiceTemplate(merged);
+
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "خطأ في تحديث القالب الصوتي", e);
+            return template;
+        }
+    }
+
     /**
      * Compare two voice templates using advanced similarity metrics
      */
@@ -148,357 +368,132 @@ public class AdvancedVoiceAnalyzer {
         }
     }
 
-    // === PRIVATE HELPER METHODS ===
-
-    private float[] applyPreEmphasis(float[] signal) {
-        float[] result = new float[signal.length];
-        result[0] = signal[0];
-
-        for (int i = 1; i < signal.length; i++) {
-            result[i] = signal[i] - (float) (PRE_EMPHASIS * signal[i - 1]);
-        }
-
-        return result;
-    }
-
-    private float[] applyHammingWindow(float[] signal) {
-        float[] result = new float[signal.length];
-        int N = signal.length;
-
-        for (int i = 0; i < N; i++) {
-            double window = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (N - 1));
-            result[i] = (float) (signal[i] * window);
-        }
-
-        return result;
-    }
-
-    private float[] normalizeAmplitude(float[] signal) {
-        float max = 0;
-        for (float value : signal) {
-            max = Math.max(max, Math.abs(value));
-        }
-
-        if (max == 0) return signal;
-
-        float[] result = new float[signal.length];
-        for (int i = 0; i < signal.length; i++) {
-            result[i] = signal[i] / max;
-        }
-
-        return result;
-    }
-
-    private float[] removeSilence(float[] signal) {
-        // Simple voice activity detection
-        double threshold = 0.02; // Adjust based on testing
-        List<Float> activeFrames = new ArrayList<>();
-
-        for (float value : signal) {
-            if (Math.abs(value) > threshold) {
-                activeFrames.add(value);
-            }
-        }
-
-        if (activeFrames.isEmpty()) {
-            return signal; // Return original if no activity detected
-        }
-
-        float[] result = new float[activeFrames.size()];
-        for (int i = 0; i < activeFrames.size(); i++) {
-            result[i] = activeFrames.get(i);
+    /**
+     * Average cosine similarity of each frame to the template's mean features,
+     * read straight from the matrix rows.
+     */
+    public double compareFramesToTemplate(FeatureMatrix frames, VoiceTemplate template) {
+        if (frames == null || frames.isEmpty() || template == null || !template.isValid()
+                || template.getMeanFeatures().length != frames.getDimension()) {
+            return 0.0;
         }
 
-        return result;
-    }
-
-    private Complex[] performFFT(float[] signal) {
-        int n = signal.length;
-        Complex[] x = new Complex[n];
-
-        // Convert to complex numbers
-        for (int i = 0; i < n; i++) {
-            x[i] = new Complex(signal[i], 0);
+        float[] data = frames.getData();
+        float[] mean = template.getMeanFeatures();
+        double sum = 0;
+        for (int row = 0; row < frames.getRowCount(); row++) {
+            sum += calculateCosineSimilarity(data, frames.rowOffset(row), mean, 0, mean.length);
         }
 
-        return fft(x);
+        return Math.max(0.0, sum / frames.getRowCount());
     }
 
-    private Complex[] fft(Complex[] x) {
-        int n = x.length;
-
-        // Base case
-        if (n == 1) return new Complex[]{x[0]};
-
-        // Divide
-        Complex[] even = new Complex[n/2];
-        Complex[] odd = new Complex[n/2];
+    // === PRIVATE HELPER METHODS ===
 
-        for (int k = 0; k < n/2; k++) {
-            even[k] = x[2*k];
-            odd[k] = x[2*k + 1];
-        }
+    private static void performFFT(float[] signal, int offset, int length, FrameBuffers buffers) {
+        float[] re = buffers.re;
+        float[] im = buffers.im;
 
-        // Conquer
-        Complex[] evenResult = fft(even);
-        Complex[] oddResult = fft(odd);
+        System.arraycopy(signal, offset, re, 0, length);
+        Arrays.fill(re, length, re.length, 0f);
+        Arrays.fill(im, 0f);
 
-        // Combine
-        Complex[] result = new Complex[n];
-        for (int k = 0; k < n/2; k++) {
-            double kth = -2 * k * Math.PI / n;
-            Complex wk = new Complex(Math.cos(kth), Math.sin(kth));
-            result[k] = evenResult[k].plus(wk.times(oddResult[k]));
-            result[k + n/2] = evenResult[k].minus(wk.times(oddResult[k]));
-        }
-
-        return result;
+        buffers.plan.transform(re, im);
     }
 
-    private double[] calculatePowerSpectrum(Complex[] fftResult) {
-        double[] power = new double[fftResult.length / 2];
+    private static void calculatePowerSpectrum(FrameBuffers buffers) {
+        float[] re = buffers.re;
+        float[] im = buffers.im;
+        double[] power = buffers.power;
 
         for (int i = 0; i < power.length; i++) {
-            power[i] = fftResult[i].abs() * fftResult[i].abs();
-        }
-
-        return power;
-    }
-
-    private double[] applyMelFilterBank(double[] powerSpectrum, int sampleRate) {
-        double[] melFiltered = new double[NUM_FILTERS];
-
-        // Mel scale conversion
-        double melLow = 0;
-        double melHigh = 2595 * Math.log10(1 + (sampleRate / 2.0) / 700);
-
-        double[] melPoints = new double[NUM_FILTERS + 2];
-        for (int i = 0; i < melPoints.length; i++) {
-            melPoints[i] = melLow + (melHigh - melLow) * i / (NUM_FILTERS + 1);
-        }
-
-        // Convert back to Hz
-        double[] hzPoints = new double[melPoints.length];
-        for (int i = 0; i < melPoints.length; i++) {
-            hzPoints[i] = 700 * (Math.pow(10, melPoints[i] / 2595) - 1);
-        }
-
-        // Convert to FFT bin numbers
-        int[] binPoints = new int[hzPoints.length];
-        for (int i = 0; i < hzPoints.length; i++) {
-            binPoints[i] = (int) Math.floor((powerSpectrum.length + 1) * hzPoints[i] / (sampleRate / 2.0));
+            power[i] = (double) re[i] * re[i] + (double) im[i] * im[i];
         }
-
-        // Apply triangular filters
-        for (int m = 1; m <= NUM_FILTERS; m++) {
-            double sum = 0;
-            for (int k = binPoints[m - 1]; k < binPoints[m]; k++) {
-                if (k < powerSpectrum.length) {
-                    sum += powerSpectrum[k] * (k - binPoints[m - 1]) / (binPoints[m] - binPoints[m - 1]);
-                }
-            }
-            for (int k = binPoints[m]; k < binPoints[m + 1]; k++) {
-                if (k < powerSpectrum.length) {
-                    sum += powerSpectrum[k] * (binPoints[m + 1] - k) / (binPoints[m + 1] - binPoints[m]);
-                }
-            }
-            melFiltered[m - 1] = sum;
-        }
-
-        return melFiltered;
     }
 
-    private double[] applyLogarithm(double[] melFiltered) {
-        double[] logMel = new double[melFiltered.length];
-
+    private static void applyLogarithm(double[] melFiltered) {
         for (int i = 0; i < melFiltered.length; i++) {
-            logMel[i] = Math.log(Math.max(melFiltered[i], 1e-10)); // Avoid log(0)
-        }
-
-        return logMel;
-    }
-
-    private float[] applyDCT(double[] logMel) {
-        float[] mfcc = new float[NUM_MFCC];
-
-        for (int i = 0; i < NUM_MFCC; i++) {
-            double sum = 0;
-            for (int j = 0; j < logMel.length; j++) {
-                sum += logMel[j] * Math.cos(Math.PI * i * (j + 0.5) / logMel.length);
-            }
-            mfcc[i] = (float) sum;
+            melFiltered[i] = Math.log(Math.max(melFiltered[i], 1e-10)); // Avoid log(0)
         }
-
-        return mfcc;
-    }
-
-    private float[] addDynamicFeatures(float[] mfcc) {
-        // For simplicity, just return MFCC
-        // In full implementation, add delta and delta-delta features
-        return mfcc;
-    }
-
-    private float[] calculateMeanFeatures(List<float[]> frames) {
-        if (frames.isEmpty()) return new float[0];
-
-        int featureSize = frames.get(0).length;
-        float[] mean = new float[featureSize];
-
-        for (float[] frame : frames) {
-            for (int i = 0; i < Math.min(featureSize, frame.length); i++) {
-                mean[i] += frame[i];
-            }
-        }
-
-        for (int i = 0; i < featureSize; i++) {
-            mean[i] /= frames.size();
-        }
-
-        return mean;
     }
 
-    private float[] calculateStdFeatures(List<float[]> frames, float[] mean) {
-        if (frames.isEmpty() || mean.length == 0) return new float[0];
-
-        int featureSize = mean.length;
-        float[] variance = new float[featureSize];
-
-        for (float[] frame : frames) {
-            for (int i = 0; i < Math.min(featureSize, frame.length); i++) {
-                float diff = frame[i] - mean[i];
-                variance[i] += diff * diff;
-            }
-        }
-
-        float[] std = new float[featureSize];
-        for (int i = 0; i < featureSize; i++) {
-            std[i] = (float) Math.sqrt(variance[i] / frames.size());
-        }
-
-        return std;
-    }
-
-    private float[] calculateMinFeatures(List<float[]> frames) {
-        if (frames.isEmpty()) return new float[0];
-
-        int featureSize = frames.get(0).length;
-        float[] min = new float[featureSize];
-        Arrays.fill(min, Float.MAX_VALUE);
-
-        for (float[] frame : frames) {
-            for (int i = 0; i < Math.min(featureSize, frame.length); i++) {
-                min[i] = Math.min(min[i], frame[i]);
-            }
-        }
-
-        return min;
-    }
-
-    private float[] calculateMaxFeatures(List<float[]> frames) {
-        if (frames.isEmpty()) return new float[0];
-
-        int featureSize = frames.get(0).length;
-        float[] max = new float[featureSize];
-        Arrays.fill(max, Float.MIN_VALUE);
-
-        for (float[] frame : frames) {
-            for (int i = 0; i < Math.min(featureSize, frame.length); i++) {
-                max[i] = Math.max(max[i], frame[i]);
-            }
-        }
-
-        return max;
-    }
-
-    private float calculateFundamentalFrequency(List<float[]> frames) {
-        // Simplified F0 estimation
-        // In full implementation, use autocorrelation or harmonic analysis
-        return 150.0f; // Average human fundamental frequency
-    }
-
-    private float calculateSpectralCentroid(List<float[]> frames) {
-        // Simplified spectral centroid calculation
-        float sum = 0;
-        for (float[] frame : frames) {
-            for (int i = 0; i < frame.length; i++) {
-                sum += frame[i] * i;
-            }
-        }
-        return sum / (frames.size() * frames.get(0).length);
-    }
-
-    private float calculateSpectralRolloff(List<float[]> frames) {
-        // Simplified spectral rolloff calculation
-        return 0.85f; // 85% energy rolloff point
-    }
-
-    private float calculateZeroCrossingRate(List<float[]> frames) {
-        int totalCrossings = 0;
-        int totalSamples = 0;
-
-        for (float[] frame : frames) {
-            for (int i = 1; i < frame.length; i++) {
-                if ((frame[i] > 0 && frame[i-1] <= 0) || (frame[i] <= 0 && frame[i-1] > 0)) {
-                    totalCrossings++;
-                }
+    /**
+     * Centroid and 85% rolloff of the frame's spectrum. F0 comes from the
+     * time-domain YIN tracker instead, which resolves pitch far finer than
+     * the spectrum's bins and does not lock onto a harmonic.
+     */
+    private static void calculateSpectralMeasures(FrameBuffers buffers) {
+        double[] power = buffers.power;
+        double binHz = (double) buffers.sampleRate / buffers.plan.getSize();
+
+        double magnitudeSum = 0;
+        double weightedSum = 0;
+        double totalPower = 0;
+        for (int k = 0; k < power.length; k++) {
+            double value = Math.sqrt(power[k]);
+            magnitudeSum += value;
+            weightedSum += value * k * binHz;
+            totalPower += power[k];
+        }
+
+        if (totalPower <= 0) {
+            buffers.centroid = -1;
+            buffers.rolloff = -1;
+            return;
+        }
+
+        buffers.centroid = weightedSum / magnitudeSum;
+
+        double target = ROLLOFF_FRACTION * totalPower;
+        double cumulative = 0;
+        int rolloffBin = power.length - 1;
+        for (int k = 0; k < power.length; k++) {
+            cumulative += power[k];
+            if (cumulative >= target) {
+                rolloffBin = k;
+                break;
             }
-            totalSamples += frame.length;
         }
-
-        return totalSamples > 0 ? (float) totalCrossings / totalSamples : 0;
+        buffers.rolloff = rolloffBin * binHz;
     }
 
-    private float calculateMfccVariance(List<float[]> frames) {
-        if (frames.isEmpty()) return 0;
-
-        float[] mean = calculateMeanFeatures(frames);
-        float totalVariance = 0;
-
-        for (float[] frame : frames) {
-            for (int i = 0; i < Math.min(mean.length, frame.length); i++) {
-                float diff = frame[i] - mean[i];
-                totalVariance += diff * diff;
-            }
-        }
-
-        return totalVariance / (frames.size() * mean.length);
+    /**
+     * F0 of the last frame passed to extractMFCC in Hz, or 0 if it was unvoiced.
+     */
+    public double getFramePitch() {
+        return frameBuffers.pitch;
     }
 
-    private float calculateQualityScore(List<float[]> frames) {
-        if (frames.isEmpty()) return 0;
-
-        // Quality based on consistency and signal strength
-        float consistency = 1.0f - calculateMfccVariance(frames);
-        float signalStrength = calculateSignalStrength(frames);
-
-        return Math.max(0, Math.min(1, (consistency + signalStrength) / 2));
+    /**
+     * Spectral centroid of the last frame in Hz, or -1 for a silent frame.
+     */
+    public double getFrameSpectralCentroid() {
+        return frameBuffers.centroid;
     }
 
-    private float calculateSignalStrength(List<float[]> frames) {
-        float totalEnergy = 0;
-        int totalSamples = 0;
-
-        for (float[] frame : frames) {
-            for (float value : frame) {
-                totalEnergy += value * value;
-            }
-            totalSamples += frame.length;
-        }
-
-        return totalSamples > 0 ? Math.min(1.0f, totalEnergy / totalSamples * 1000) : 0;
+    /**
+     * 85% energy rolloff of the last frame in Hz, or -1 for a silent frame.
+     */
+    public double getFrameSpectralRolloff() {
+        return frameBuffers.rolloff;
     }
 
     private double calculateCosineSimilarity(float[] vec1, float[] vec2) {
         if (vec1.length != vec2.length) return 0;
+        return calculateCosineSimilarity(vec1, 0, vec2, 0, vec1.length);
+    }
 
+    private static double calculateCosineSimilarity(float[] data1, int offset1, float[] data2, int offset2, int length) {
         double dotProduct = 0;
         double norm1 = 0;
         double norm2 = 0;
 
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            norm1 += vec1[i] * vec1[i];
-            norm2 += vec2[i] * vec2[i];
+        for (int i = 0; i < length; i++) {
+            float a = data1[offset1 + i];
+            float b = data2[offset2 + i];
+            dotProduct += a * b;
+            norm1 += a * a;
+            norm2 += b * b;
         }
 
         if (norm1 == 0 || norm2 == 0) return 0;
@@ -512,16 +507,23 @@ public class AdvancedVoiceAnalyzer {
     }
 
     private double calculateFrequencySimilarity(float freq1, float freq2) {
+        if (freq1 <= 0 || freq2 <= 0) return NEUTRAL_SIMILARITY;
+
         double diff = Math.abs(freq1 - freq2);
         double maxDiff = 100; // Max expected difference in Hz
         return Math.max(0, 1.0 - diff / maxDiff);
     }
 
     private double calculateSpectralSimilarity(VoiceTemplate t1, VoiceTemplate t2) {
-        double centroidDiff = Math.abs(t1.getSpectralCentroid() - t2.getSpectralCentroid());
-        double rolloffDiff = Math.abs(t1.getSpectralRolloff() - t2.getSpectralRolloff());
+        double centroidSim = calculateRelativeSimilarity(t1.getSpectralCentroid(), t2.getSpectralCentroid());
+        double rolloffSim = calculateRelativeSimilarity(t1.getSpectralRolloff(), t2.getSpectralRolloff());
 
-        return Math.max(0, 1.0 - (centroidDiff + rolloffDiff) / 2);
+        return (centroidSim + rolloffSim) / 2;
+    }
+
+    private double calculateRelativeSimilarity(float value1, float value2) {
+        if (value1 <= 0 || value2 <= 0) return NEUTRAL_SIMILARITY;
+        return 1.0 - Math.abs(value1 - value2) / Math.max(value1, value2);
     }
 
     private double calculateEuclideanDistance(float[] vec1, float[] vec2) {
@@ -536,39 +538,38 @@ public class AdvancedVoiceAnalyzer {
         return Math.sqrt(sum) / vec1.length;
     }
 
-    // Complex number class for FFT
-    private static class Complex {
-        private final double re;   // the real part
-        private final double im;   // the imaginary part
-
-        public Complex(double real, double imag) {
-            re = real;
-            im = imag;
-        }
-
-        public Complex plus(Complex b) {
-            Complex c = this;
-            double real = c.re + b.re;
-            double imag = c.im + b.im;
-            return new Complex(real, imag);
-        }
-
-        public Complex minus(Complex b) {
-            Complex c = this;
-            double real = c.re - b.re;
-            double imag = c.im - b.im;
-            return new Complex(real, imag);
-        }
-
-        public Complex times(Complex b) {
-            Complex c = this;
-            double real = c.re * b.re - c.im * b.im;
-            double imag = c.re * b.im + c.im * b.re;
-            return new Complex(real, imag);
-        }
-
-        public double abs() {
-            return Math.hypot(re, im);
+    // Per-frame scratch space sized to the FFT plan
+    private static final class FrameBuffers {
+        FFT plan;
+        float[] re;
+        float[] im;
+        double[] power;
+        PitchTracker pitchTracker;
+        double pitch;
+        double centroid;
+        double rolloff;
+        MelFilterBank melBank;
+        int sampleRate;
+        final double[] mel = new double[NUM_FILTERS];
+        final DctTable dct = DctTable.forSize(NUM_FILTERS, NUM_MFCC);
+
+        void ensureCapacity(int frameLength, int sampleRate) {
+            int size = FFT.nextPowerOfTwo(frameLength);
+            if (plan == null || plan.getSize() != size) {
+                plan = FFT.forSize(size);
+                re = new float[size];
+                im = new float[size];
+                power = new double[size / 2];
+                melBank = null;
+            }
+            if (melBank == null || this.sampleRate != sampleRate) {
+                melBank = MelFilterBank.triangular(sampleRate, power.length, NUM_FILTERS);
+                this.sampleRate = sampleRate;
+                pitchTracker = null;
+            }
+            if (pitchTracker == null || pitchTracker.getFrameSize() != frameLength) {
+                pitchTracker = new PitchTracker(sampleRate, frameLength, MIN_F0, MAX_F0);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,271 @@
+package com.bank.bayan;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dynamic time warping over MFCC frame sequences, for matching spoken words
+ * against recorded takes of them (menu keywords, the wake phrase) where the
+ * timing structure of the word matters.
+ *
+ * <p>Paths are confined to a Sakoe-Chiba band around the diagonal, so the
+ * cost matrix is evaluated in two rolling rows. Enrollment takes are
+ * {@link #prepare prepared} once with their LB_Keogh envelope; matching
+ * ranks takes by that lower bound, skips any that cannot beat the best so
+ * far, and abandons a DTW pass as soon as its partial cost plus the bound on
+ * the remaining rows exceeds the threshold.
+ *
+ * <p>The rolling rows are reused between calls, so a matcher must not be
+ * shared between threads.
+ */
+public class DtwMatcher {
+
+    private final int dimension;
+    private final float bandFraction;
+
+    private double[] previousRow = new double[0];
+    private double[] currentRow = new double[0];
+    private double[] remainingBound = new double[0];
+
+    public static class Reference {
+        private final FeatureMatrix frames;
+        private final int radius;
+        // Per-frame envelope of the take over its band, row-major like frames
+        private final float[] upper;
+        private final float[] lower;
+
+        Reference(FeatureMatrix frames, int radius, float[] upper, float[] lower) {
+            this.frames = frames;
+            this.radius = radius;
+            this.upper = upper;
+            this.lower = lower;
+        }
+
+        public FeatureMatrix getFrames() {
+            return frames;
+        }
+    }
+
+    public static class Match {
+        public final int index;
+        // Path cost divided by the two sequence lengths combined
+        public final double distance;
+
+        Match(int index, double distance) {
+            this.index = index;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * @param bandFraction Sakoe-Chiba radius as a fraction of the reference length
+     */
+    public DtwMatcher(int dimension, float bandFraction) {
+        this.dimension = dimension;
+        this.bandFraction = bandFraction;
+    }
+
+    /**
+     * Precomputes the take's band radius and LB_Keogh envelope.
+     */
+    public Reference prepare(FeatureMatrix take) {
+        if (take.getDimension() != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + "-dimensional frames");
+        }
+
+        int length = take.getRowCount();
+        int radius = Math.max(1, Math.round(bandFraction * length));
+        float[] data = take.getData();
+        float[] upper = new float[length * dimension];
+        float[] lower = new float[length * dimension];
+
+        for (int j = 0; j < length; j++) {
+            int out = j * dimension;
+            Arrays.fill(upper, out, out + dimension, -Float.MAX_VALUE);
+            Arrays.fill(lower, out, out + dimension, Float.MAX_VALUE);
+            for (int k = Math.max(0, j - radius), end = Math.min(length - 1, j + radius); k <= end; k++) {
+                int in = k * dimension;
+                for (int d = 0; d < dimension; d++) {
+                    float value = data[in + d];
+                    if (value > upper[out + d]) {
+                        upper[out + d] = value;
+                    }
+                    if (value < lower[out + d]) {
+                        lower[out + d] = value;
+                    }
+                }
+            }
+        }
+
+        return new Reference(take, radius, upper, lower);
+    }
+
+    /**
+     * Best matching take for the query, or null if none is within maxDistance.
+     */
+    public Match bestMatch(FeatureMatrix query, List<Reference> takes, double maxDistance) {
+        int count = takes.size();
+        if (query.isEmpty() || count == 0) {
+            return null;
+        }
+
+        // Visit takes in order of their lower bound so the best-so-far tightens quickly
+        double[] bounds = new double[count];
+        Integer[] order = new Integer[count];
+        for (int t = 0; t < count; t++) {
+            order[t] = t;
+            bounds[t] = lowerBound(query, takes.get(t), null) / pathScale(query, takes.get(t));
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(bounds[a], bounds[b]));
+
+        int bestIndex = -1;
+        double bestDistance = maxDistance;
+        for (int t : order) {
+            if (bounds[t] >= bestDistance) {
+                break;
+            }
+            double distance = distance(query, takes.get(t), bestDistance);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestIndex = t;
+            }
+        }
+
+        return bestIndex >= 0 ? new Match(bestIndex, bestDistance) : null;
+    }
+
+    /**
+     * Normalized DTW distance between the query and a take, or
+     * Double.POSITIVE_INFINITY once it is certain to exceed abandonAbove.
+     */
+    public double distance(FeatureMatrix query, Reference take, double abandonAbove) {
+        int n = query.getRowCount();
+        int m = take.frames.getRowCount();
+        if (n == 0 || m == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double scale = pathScale(query, take);
+        double budget = abandonAbove * scale;
+
+        ensureRows(n, m);
+        // remainingBound[i]: LB_Keogh of query rows i..n-1, so a pass can stop early
+        double total = lowerBound(query, take, remainingBound);
+        if (total > budget) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        float[] q = query.getData();
+        float[] r = take.frames.getData();
+        double[] previous = previousRow;
+        double[] current = currentRow;
+        int previousLo = 0;
+        int previousHi = -1;
+
+        for (int i = 0; i < n; i++) {
+            int center = center(i, n, m);
+            int lo = Math.max(0, center - take.radius);
+            int hi = Math.min(m - 1, center + take.radius);
+            double rowMin = Double.POSITIVE_INFINITY;
+
+            for (int j = lo; j <= hi; j++) {
+                double best;
+                if (i == 0 && j == 0) {
+                    best = 0.0;
+                } else {
+                    best = Double.POSITIVE_INFINITY;
+                    if (j > lo) {
+                        best = current[j - 1];
+                    }
+                    if (j >= previousLo && j <= previousHi && previous[j] < best) {
+                        best = previous[j];
+                    }
+                    if (j - 1 >= previousLo && j - 1 <= previousHi && previous[j - 1] < best) {
+                        best = previous[j - 1];
+                    }
+                }
+
+                double cost = best + frameDistance(q, i * dimension, r, j * dimension);
+                current[j] = cost;
+                if (cost < rowMin) {
+                    rowMin = cost;
+                }
+            }
+
+            double tail = i + 1 < n ? remainingBound[i + 1] : 0.0;
+            if (rowMin + tail > budget) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            double[] swap = previous;
+            previous = current;
+            current = swap;
+            previousLo = lo;
+            previousHi = hi;
+        }
+
+        previousRow = previous;
+        currentRow = current;
+        return previousHi == m - 1 ? previous[m - 1] / scale : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * LB_Keogh of the whole query against the take's envelope; if suffixOut is
+     * given, suffixOut[i] receives the bound of query rows i..n-1.
+     */
+    private double lowerBound(FeatureMatrix query, Reference take, double[] suffixOut) {
+        int n = query.getRowCount();
+        int m = take.frames.getRowCount();
+        float[] q = query.getData();
+        double total = 0.0;
+
+        for (int i = n - 1; i >= 0; i--) {
+            int in = i * dimension;
+            int env = center(i, n, m) * dimension;
+            double rowBound = 0.0;
+            for (int d = 0; d < dimension; d++) {
+                float value = q[in + d];
+                float upper = take.upper[env + d];
+                float lower = take.lower[env + d];
+                if (value > upper) {
+                    rowBound += (value - upper) * (value - upper);
+                } else if (value < lower) {
+                    rowBound += (lower - value) * (lower - value);
+                }
+            }
+            total += rowBound;
+            if (suffixOut != null) {
+                suffixOut[i] = total;
+            }
+        }
+        return total;
+    }
+
+    // Take row on the diagonal for query row i
+    private static int center(int i, int n, int m) {
+        return n > 1 ? (int) ((long) i * (m - 1) * 2 / (n - 1) + 1) / 2 : 0;
+    }
+
+    private static double pathScale(FeatureMatrix query, Reference take) {
+        return query.getRowCount() + take.frames.getRowCount();
+    }
+
+    private double frameDistance(float[] a, int aOffset, float[] b, int bOffset) {
+        float sum = 0f;
+        for (int d = 0; d < dimension; d++) {
+            float diff = a[aOffset + d] - b[bOffset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private void ensureRows(int n, int m) {
+        if (previousRow.length < m) {
+            previousRow = new double[m];
+            currentRow = new double[m];
+        }
+        if (remainingBound.length < n) {
+            remainingBound = new double[n];
+        }
+    }
+}
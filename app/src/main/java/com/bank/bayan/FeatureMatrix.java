@@ -0,0 +1,137 @@
+package com.bank.bayan;
+
+import java.util.Arrays;
+
+/**
+ * Feature frames stored as one row-major float array with a fixed row
+ * dimension. Rows are appended in place and read through
+ * {@link #getData()} and {@link #rowOffset(int)} without copying, so a whole
+ * enrollment is a single allocation that grows by doubling.
+ */
+public class FeatureMatrix {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final int dimension;
+    private float[] data;
+    private int rows;
+
+    public FeatureMatrix(int dimension) {
+        this(dimension, DEFAULT_CAPACITY);
+    }
+
+    public FeatureMatrix(int dimension, int initialRows) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.data = new float[dimension * Math.max(1, initialRows)];
+    }
+
+    /**
+     * Appends row[0, getDimension()).
+     */
+    public void addRow(float[] row) {
+        addRow(row, 0);
+    }
+
+    public void addRow(float[] source, int offset) {
+        ensureCapacity(rows + 1);
+        System.arraycopy(source, offset, data, rows * dimension, dimension);
+        rows++;
+    }
+
+    /**
+     * Reserves the next row and returns its offset in getData(), for writing a row in place.
+     */
+    public int appendRow() {
+        ensureCapacity(rows + 1);
+        int offset = rows * dimension;
+        Arrays.fill(data, offset, offset + dimension, 0f);
+        rows++;
+        return offset;
+    }
+
+    private void ensureCapacity(int rowCount) {
+        if (rowCount * dimension > data.length) {
+            int capacity = Math.max(rowCount, data.length / dimension * 2);
+            data = Arrays.copyOf(data, capacity * dimension);
+        }
+    }
+
+    public void clear() {
+        rows = 0;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    /**
+     * Backing array; row r occupies [rowOffset(r), rowOffset(r) + getDimension()).
+     * The array is replaced when the matrix grows, so re-read it after adding rows.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    public int rowOffset(int row) {
+        return row * dimension;
+    }
+
+    public float get(int row, int column) {
+        return data[row * dimension + column];
+    }
+
+    public float[] copyRow(int row) {
+        return Arrays.copyOfRange(data, row * dimension, (row + 1) * dimension);
+    }
+
+    public float[] columnMeans() {
+        float[] means = new float[dimension];
+        if (rows == 0) {
+            return means;
+        }
+
+        double[] sums = new double[dimension];
+        for (int offset = 0, end = rows * dimension; offset < end; offset += dimension) {
+            for (int i = 0; i < dimension; i++) {
+                sums[i] += data[offset + i];
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            means[i] = (float) (sums[i] / rows);
+        }
+        return means;
+    }
+
+    public float[] columnMins() {
+        float[] mins = new float[dimension];
+        Arrays.fill(mins, Float.MAX_VALUE);
+        for (int offset = 0, end = rows * dimension; offset < end; offset += dimension) {
+            for (int i = 0; i < dimension; i++) {
+                mins[i] = Math.min(mins[i], data[offset + i]);
+            }
+        }
+        return mins;
+    }
+
+    public float[] columnMaxes() {
+        float[] maxes = new float[dimension];
+        Arrays.fill(maxes, -Float.MAX_VALUE);
+        for (int offset = 0, end = rows * dimension; offset < end; offset += dimension) {
+            for (int i = 0; i < dimension; i++) {
+                maxes[i] = Math.max(maxes[i], data[offset + i]);
+            }
+        }
+        return maxes;
+    }
+}
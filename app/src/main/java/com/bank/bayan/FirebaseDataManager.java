@@ -5,10 +5,13 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.bank.bayan.audio.VoiceFingerprint;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
 import com.google.firebase.database.ValueEventListener;
 
 import java.text.SimpleDateFormat;
@@ -51,6 +54,18 @@ public class FirebaseDataManager {
         void onSuccess(String message);
         void onError(String error);
     }
+    
+    public interface VoiceStatisticsCallback {
+        void onStatisticsLoaded(VoiceStatistics statistics);
+        void onError(String error);
+    }
+    
+    public interface VoiceTemplateCallback {
+        void onTemplateLoaded(VoiceTemplate template);
+        /** The user has never saved a template; load and decode failures go to onError. */
+        void onNotEnrolled();
+        void onError(String error);
+    }
 
     public FirebaseDataManager(Context context, String userId) {
         this.context = context;
@@ -93,6 +108,178 @@ public class FirebaseDataManager {
                 .addOnFailureListener(e -> callback.onError("خطأ في تحديث البيانات: " + e.getMessage()));
     }
 
+    public void loadVoiceStatistics(VoiceStatisticsCallback callback) {
+        DatabaseReference statisticsRef = databaseRef.child("users").child(userId).child("voice_statistics");
+        
+        statisticsRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Object value = snapshot.getValue();
+                VoiceStatistics statistics = null;
+                if (value instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) value;
+                    statistics = VoiceStatistics.fromMap(map);
+                }
+                
+                if (statistics != null) {
+                    callback.onStatisticsLoaded(statistics);
+                } else {
+                    callback.onError("لم يتم العثور على بصمة صوتية محفوظة");
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onError("خطأ في تحميل البصمة الصوتية: " + error.getMessage());
+            }
+        });
+    }
+
+    public void saveVoiceStatistics(VoiceStatistics statistics, OperationCallback callback) {
+        DatabaseReference statisticsRef = databaseRef.child("users").child(userId).child("voice_statistics");
+        
+        statisticsRef.setValue(statistics.toMap())
+                .addOnSuccessListener(aVoid -> callback.onSuccess("تم تحديث البصمة الصوتية بنجاح"))
+                .addOnFailureListener(e -> callback.onError("خطأ في حفظ البصمة الصوتية: " + e.getMessage()));
+    }
+
+    /**
+     * Loads the user's voice template, reading only its version from Firebase
+     * when the device already caches that version.
+     */
+    public void loadVoiceTemplate(VoiceTemplateCallback callback) {
+        DatabaseReference versionRef = databaseRef.child("users").child(userId).child("voice_template_version");
+        
+        versionRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Long version = snapshot.getValue(Long.class);
+                if (version == null) {
+                    callback.onNotEnrolled();
+                    return;
+                }
+                
+                VoiceTemplate cached = VoiceTemplateCache.getInstance(context).get(userId, version);
+                if (cached != null) {
+                    callback.onTemplateLoaded(cached);
+                } else {
+                    fetchVoiceTemplate(version, callback);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onError("خطأ في تحميل البصمة الصوتية: " + error.getMessage());
+            }
+        });
+    }
+
+    private void fetchVoiceTemplate(long version, VoiceTemplateCallback callback) {
+        DatabaseReference templateRef = databaseRef.child("users").child(userId).child("voice_template");
+        
+        templateRef.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                String encoded = snapshot.getValue(String.class);
+                if (encoded == null) {
+                    callback.onError("لم يتم العثور على بصمة صوتية محفوظة");
+                    return;
+                }
+                
+                try {
+                    VoiceTemplate template = VoiceCodec.templateFromBase64(encoded);
+                    VoiceTemplateCache.getInstance(context).put(userId, version, template);
+                    callback.onTemplateLoaded(template);
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Invalid voice template", e);
+                    callback.onError("البصمة الصوتية المحفوظة غير صالحة");
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onError("خطأ في تحميل البصمة الصوتية: " + error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stores the template under a new version, which invalidates cached copies on other devices.
+     */
+    public void saveVoiceTemplate(VoiceTemplate template, OperationCallback callback) {
+        DatabaseReference userRef = databaseRef.child("users").child(userId);
+        long version = System.currentTimeMillis();
+        
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("voice_template", VoiceCodec.toBase64(template, true));
+        updates.put("voice_template_version", version);
+        
+        userRef.updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    VoiceTemplateCache.getInstance(context).put(userId, version, template);
+                    callback.onSuccess("تم تحديث البصمة الصوتية بنجاح");
+                })
+                .addOnFailureListener(e -> callback.onError("خطأ في حفظ البصمة الصوتية: " + e.getMessage()));
+    }
+
+    /**
+     * Publishes the user's pooled voice features to the voice_index used for
+     * login without a name. The index holds no names, since every device
+     * downloads it before anyone has logged in.
+     */
+    public void saveSpeakerFeatures(float[] features, OperationCallback callback) {
+        DatabaseReference indexRef = databaseRef.child("voice_index").child(userId);
+        
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("features", VoiceCodec.toBase64(features));
+        // Coarse hash for cheap duplicate-enrollment scans over the whole index
+        entry.put("fingerprint", VoiceFingerprint.toHex(VoiceFingerprint.of(features, 0, features.length)));
+        
+        indexRef.setValue(entry)
+                .addOnSuccessListener(aVoid -> callback.onSuccess("تم تسجيل البصمة الصوتية بنجاح"))
+                .addOnFailureListener(e -> callback.onError("خطأ في حفظ البصمة الصوتية: " + e.getMessage()));
+    }
+
+    /**
+     * Adds one enrollment's pooled voice features to the population
+     * statistics the voice_index is normalized with.
+     */
+    public void addToVoicePopulation(float[] features, OperationCallback callback) {
+        DatabaseReference populationRef = databaseRef.child("voice_population");
+        
+        populationRef.runTransaction(new Transaction.Handler() {
+            @NonNull
+            @Override
+            public Transaction.Result doTransaction(@NonNull MutableData currentData) {
+                VoiceStatistics population = null;
+                Object value = currentData.getValue();
+                if (value instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) value;
+                    population = VoiceStatistics.fromMap(map);
+                }
+                if (population == null || population.getDimension() != features.length) {
+                    population = new VoiceStatistics(features.length);
+                }
+                
+                population.add(features);
+                currentData.setValue(population.toMap());
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+                if (committed) {
+                    callback.onSuccess("تم تحديث إحصائيات البصمات الصوتية");
+                } else {
+                    callback.onError("خطأ في تحديث إحصائيات البصمات الصوتية: "
+                            + (error != null ? error.getMessage() : ""));
+                }
+            }
+        });
+    }
+
     private void createDefaultUserData(UserDataCallback callback) {
         UserData defaultUser = new UserData();
         defaultUser.setUserId(userId);
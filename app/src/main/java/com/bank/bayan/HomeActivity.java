@@ -1,8 +1,17 @@
 package com.bank.bayan;
 
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.speech.RecognitionListener;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
@@ -19,6 +28,7 @@ import androidx.annotation.ColorRes;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -62,6 +72,41 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
 
     private TextToSpeech textToSpeech;
     private SpeechRecognizer speechRecognizer;
+    // Answers menu digits on-device when it can, otherwise relays the cloud transcript
+    private MenuKeywordRecognizer keywordRecognizer;
+
+    private static final int REQUEST_NOTIFICATIONS = 1001;
+
+    // Commands spoken after the wake phrase, recognized by WakeWordService.
+    // Registered while the activity is started, and only acted on between conversations.
+    private final BroadcastReceiver wakeWordCommandReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String command = intent.getStringExtra(WakeWordService.EXTRA_COMMAND);
+            if (command == null || currentState != ConversationState.MAIN_MENU || isListening) {
+                return;
+            }
+            if (textToSpeech != null && textToSpeech.isSpeaking()) {
+                textToSpeech.stop();
+            }
+            currentState = ConversationState.LISTENING_FOR_COMMAND;
+            processSpeechResult(command);
+        }
+    };
+
+    // Bound while the activity is started, if the service runs, so listening can wait for its microphone
+    private WakeWordService.Control wakeWordControl;
+    private final ServiceConnection wakeWordConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            wakeWordControl = (WakeWordService.Control) service;
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            wakeWordControl = null;
+        }
+    };
 
     private TextView userNameTextView;
     private TextView balanceTextView;
@@ -85,6 +130,7 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
     private double monthlyExpenses = 0.0;
 
     private boolean isListening = false;
+    private boolean isStarted = false;
     private ConversationState currentState = ConversationState.LOADING_DATA;
     private FirebaseHelper firebaseHelper;
     private DecimalFormat decimalFormat = new DecimalFormat("#,##0.00");
@@ -108,11 +154,20 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
 
         textToSpeech = new TextToSpeech(this, this);
         speechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
+        if (MenuKeywordRecognizer.isSupported(this)) {
+            keywordRecognizer = new MenuKeywordRecognizer(this);
+        }
 
         initializeViews();
         setupSpeechRecognition();
         setupClickListeners();
 
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
+                == PackageManager.PERMISSION_GRANTED && WakeWordDetector.hasStoredTakes(this)) {
+            requestNotificationPermission();
+            WakeWordService.start(this);
+        }
+
         loadUserData();
 
         ImageView notificationIcon = findViewById(R.id.notificationIcon);
@@ -451,6 +506,7 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
     }
 
     private void processSpeechResult(String spokenText) {
+        resumeWakeWord();
         spokenText = spokenText.trim().toLowerCase();
 
         switch (currentState) {
@@ -496,6 +552,9 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
                 spokenText.contains("مدفوعات") || spokenText.contains("سداد")){
             navigateToBillPayment();
         }
+        else if (spokenText.contains("تفعيل")) {
+            enrollWakeWord();
+        }
         else if(spokenText.contains("ثمانية") || spokenText.contains("٨") ||
                     spokenText.contains("خدمات") || spokenText.contains("مساعدة")){
             announceServices();
@@ -508,6 +567,36 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
         }
     }
 
+    /**
+     * Records the user's takes of the wake phrase. Only this explicit request
+     * does; the wake word service does not run until they exist.
+     */
+    private void enrollWakeWord() {
+        currentState = ConversationState.MAIN_MENU;
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
+                != PackageManager.PERMISSION_GRANTED || !WakeWordService.isEnrollmentSupported()) {
+            speak("المساعد الصوتي غير متاح على هذا الجهاز");
+            return;
+        }
+
+        requestNotificationPermission();
+        speakThen("بعد انتهاء هذه الرسالة قل " + WakeWordDetector.WAKE_PHRASE
+                + " ثلاث مرات، وانتظر الصفارة بعد كل مرة", () -> WakeWordService.enroll(this));
+    }
+
+    /**
+     * The wake word service's notification is hidden without this on Android 13+;
+     * the service runs either way.
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_NOTIFICATIONS);
+        }
+    }
+
     private void announceServices() {
         speak("انتقال الى صفحة الخدمات");
         Intent intent = new Intent(this, ServicesActivity.class);
@@ -625,6 +714,10 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
     }
 
     private void speakAndListen(String text) {
+        speakThen(text, this::startListening);
+    }
+
+    private void speakThen(String text, Runnable then) {
         if (textToSpeech != null) {
             textToSpeech.setOnUtteranceProgressListener(new UtteranceProgressListener() {
                 @Override
@@ -632,7 +725,7 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
 
                 @Override
                 public void onDone(String utteranceId) {
-                    runOnUiThread(() -> startListening());
+                    runOnUiThread(then);
                 }
 
                 @Override
@@ -647,13 +740,69 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
 
     private void startListening() {
         if (!isListening && currentState != ConversationState.LOADING_DATA) {
-            Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
-            intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
-            intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, "ar-SA");
-            intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+            // Our capture can only open the microphone once the wake word service has let go of it
+            pauseWakeWord(this::startRecognition);
+        }
+    }
+
+    private void startRecognition() {
+        // The pause may complete after the activity has gone to the background
+        if (!isStarted || isListening || currentState == ConversationState.LOADING_DATA) {
+            return;
+        }
+        if (currentState == ConversationState.LISTENING_FOR_COMMAND && startKeywordListening()) {
+            return;
+        }
+
+        Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, "ar-SA");
+        intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
 
-            speechRecognizer.startListening(intent);
+        if (speechRecognizer == null) {
+            // Destroyed when the activity was last stopped
+            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
+            setupSpeechRecognition();
         }
+        speechRecognizer.startListening(intent);
+    }
+
+    private void pauseWakeWord(Runnable then) {
+        if (wakeWordControl != null) {
+            wakeWordControl.pause(then);
+        } else {
+            then.run();
+        }
+    }
+
+    // Through the binding when there is one, so a resume cannot overtake a later pause
+    private void resumeWakeWord() {
+        if (wakeWordControl != null) {
+            wakeWordControl.resume();
+        } else {
+            WakeWordService.resume(this);
+        }
+    }
+
+    private boolean startKeywordListening() {
+        if (keywordRecognizer == null) {
+            return false;
+        }
+
+        isListening = keywordRecognizer.listen(new MenuKeywordRecognizer.Listener() {
+            @Override
+            public void onCommand(String text, boolean onDevice) {
+                isListening = false;
+                processSpeechResult(text);
+            }
+
+            @Override
+            public void onError(int error) {
+                isListening = false;
+                handleSpeechError(error);
+            }
+        });
+        return isListening;
     }
 
     private void handleSpeechError(int error) {
@@ -695,6 +844,10 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
         if (speechRecognizer != null) {
             speechRecognizer.destroy();
         }
+        if (keywordRecognizer != null) {
+            keywordRecognizer.destroy();
+        }
+        WakeWordService.stop(this);
         super.onDestroy();
     }
 
@@ -712,12 +865,34 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
     protected void onPause() {
         super.onPause();
         stopListeningAndSpeaking();
+        // Still visible, e.g. in multi-window; onStop pauses it again if the screen goes away
+        resumeWakeWord();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isStarted = true;
+        ContextCompat.registerReceiver(this, wakeWordCommandReceiver,
+                new IntentFilter(WakeWordService.ACTION_VOICE_COMMAND), ContextCompat.RECEIVER_NOT_EXPORTED);
+        bindService(new Intent(this, WakeWordService.class), wakeWordConnection, 0);
+        resumeWakeWord();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
+        isStarted = false;
         stopListeningAndSpeaking();
+        // Nothing could act on a detection while the screen is hidden
+        if (wakeWordControl != null) {
+            wakeWordControl.pause(null);
+        } else {
+            WakeWordService.pause(this);
+        }
+        unregisterReceiver(wakeWordCommandReceiver);
+        unbindService(wakeWordConnection);
+        wakeWordControl = null;
     }
 
 
@@ -728,6 +903,10 @@ public class HomeActivity extends AppCompatActivity implements TextToSpeech.OnIn
             speechRecognizer.destroy();
             speechRecognizer = null;
         }
+        if (keywordRecognizer != null) {
+            keywordRecognizer.cancel();
+            isListening = false;
+        }
 
         if (textToSpeech != null && textToSpeech.isSpeaking()) {
             textToSpeech.stop();
@@ -0,0 +1,503 @@
+package com.bank.bayan;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import com.bank.bayan.audio.AudioProcessingScheduler;
+import com.bank.bayan.audio.AudioRecorderPCM;
+import com.bank.bayan.audio.RecognizerAudioFeed;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-device recognizer for the short menu answers ("واحد".."خمسة", "رصيد",
+ * "تحويل"), running alongside the cloud SpeechRecognizer on one capture.
+ *
+ * <p>Every answer is captured once; the PCM goes both to the cloud recognizer
+ * (through a {@link RecognizerAudioFeed}) and to a VoiceFeatureStream whose
+ * MFCC + delta frames are matched by DTW against this device's keyword
+ * templates. Once every keyword has takes, a best keyword that is within its
+ * own takes' spread and clearly beats every other one is delivered straight
+ * away and the cloud request is cancelled; otherwise the cloud transcript is
+ * delivered as before. Templates are learned from the
+ * user's own voice: an utterance the cloud recognizer transcribes as exactly
+ * one keyword with high confidence becomes a take for that keyword.
+ *
+ * <p>Needs Android 13+ to share the microphone with the cloud recognizer
+ * ({@link #isSupported()}). All callbacks arrive on the main thread.
+ */
+public class MenuKeywordRecognizer {
+
+    private static final String TAG = "MenuKeywordRecognizer";
+
+    public static final String[] KEYWORDS = {"واحد", "اثنين", "ثلاثة", "أربعة", "خمسة", "رصيد", "تحويل"};
+    // Digit transcripts the cloud recognizer may return for the first five keywords
+    private static final String[] DIGITS = {"1", "2", "3", "4", "5"};
+    private static final String[] ARABIC_DIGITS = {"١", "٢", "٣", "٤", "٥"};
+
+    private static final int MAX_TAKES_PER_KEYWORD = 3;
+    // Takes every keyword needs before an on-device answer may replace the cloud one
+    private static final int MIN_TAKES_PER_KEYWORD = 2;
+    // A match must be within this multiple of the mean distance between the keyword's own takes
+    private static final double ACCEPT_FACTOR = 1.5;
+    private static final float DTW_BAND = 0.2f;
+    // The best keyword's distance must be this many times smaller than any other keyword's
+    private static final double CONFIDENCE_RATIO = 1.3;
+    private static final float MIN_CLOUD_CONFIDENCE = 0.8f;
+    private static final int MIN_KEYWORD_FRAMES = 5;
+    // About 30 dB below the loudest frame, summed over the 26 mel bands of c0
+    private static final float SILENCE_C0_DROP = (float) (26 * Math.log(1000));
+    private static final int HANGOVER_MS = 150;
+    private static final long MAX_CAPTURE_MS = 4000;
+    private static final String DIRECTORY = "menu_keywords";
+    private static final String FEATURE_CONSUMER = "keyword-features";
+    private static final String RECOGNIZER_CONSUMER = "keyword-recognizer";
+    private static final String JOB_KEY = "menu-keyword";
+
+    public interface Listener {
+        /**
+         * @param text     the keyword, or the cloud transcript when no keyword was certain
+         * @param onDevice true if the on-device match answered without the cloud
+         */
+        void onCommand(String text, boolean onDevice);
+
+        void onError(int error);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AudioRecorderPCM recorder;
+    // Takes per keyword, stored side by side under "<keyword index>_" file names
+    private final TakeStore[] templates = new TakeStore[KEYWORDS.length];
+    private SpeechRecognizer speechRecognizer;
+    private RecognizerAudioFeed recognizerFeed;
+
+    // Per-utterance state, touched only on the main thread
+    private int attempt;
+    private Listener listener;
+    private FeatureMatrix frames;
+    private boolean speechEnded;
+    private boolean matched;
+    private boolean cloudDone;
+    private boolean delivered;
+    private int cloudKeyword;
+    private int cloudError;
+    private FeatureMatrix utterance;
+    private long speechEndNanos;
+
+    private final Runnable captureTimeout = () -> onSpeechEnd(false);
+
+    public MenuKeywordRecognizer(Context context) {
+        this.context = context;
+        this.recorder = new AudioRecorderPCM(context);
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            templates[i] = new TakeStore(directory, i + "_",
+                    MAX_TAKES_PER_KEYWORD, MIN_TAKES_PER_KEYWORD, DTW_BAND, ACCEPT_FACTOR);
+        }
+        recorder.setEndOfSpeechHangoverMs(HANGOVER_MS);
+        recorder.setSpeechEndListener(() -> mainHandler.post(() -> onSpeechEnd(true)));
+
+        AudioProcessingScheduler.getInstance().submit(null, AudioProcessingScheduler.Priority.BACKGROUND, () -> {
+            for (TakeStore store : templates) {
+                store.load();
+            }
+            return null;
+        });
+    }
+
+    public static boolean isSupported(Context context) {
+        return RecognizerAudioFeed.isSupported() && SpeechRecognizer.isRecognitionAvailable(context);
+    }
+
+    /**
+     * Listens for one menu answer. If the last answer's capture is still being
+     * released, the microphone opens once it is, and a failure to open it then
+     * arrives as onError(ERROR_AUDIO).
+     *
+     * @return false if the microphone could not be opened
+     */
+    public boolean listen(Listener listener) {
+        reset();
+
+        this.listener = listener;
+        this.speechEnded = false;
+        this.matched = false;
+        this.cloudDone = false;
+        this.delivered = false;
+        this.cloudKeyword = -1;
+        this.cloudError = 0;
+        this.utterance = null;
+
+        if (recorder.isRecording() || recorder.isStopPending()) {
+            // Opening the mic now would block the main thread until the old capture is released
+            int current = attempt;
+            recorder.stopRecordingAsync(() -> {
+                if (current == attempt && !startCapture()) {
+                    Listener target = this.listener;
+                    reset();
+                    target.onError(SpeechRecognizer.ERROR_AUDIO);
+                }
+            });
+            return true;
+        }
+
+        if (!startCapture()) {
+            this.listener = null;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean startCapture() {
+        FeatureMatrix collected = new FeatureMatrix(AdvancedVoiceAnalyzer.FEATURE_DIMENSION);
+        frames = collected;
+        recorder.addConsumer(FEATURE_CONSUMER, new VoiceFeatureStream(recorder.getSampleRate(),
+                new VoiceFeatureStream.FeatureFrameListener() {
+                    @Override
+                    public void onFeatureFrame(float[] features) {
+                        collected.addRow(features);
+                    }
+
+                    @Override
+                    public void onStreamEnd() {
+                    }
+                }));
+
+        if (speechRecognizer == null) {
+            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(context);
+            speechRecognizer.setRecognitionListener(new CloudListener());
+        }
+
+        Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, "ar-SA");
+        intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, context.getPackageName());
+        recognizerFeed = RecognizerAudioFeed.create(intent, recorder.getSampleRate());
+        if (recognizerFeed == null) {
+            return false;
+        }
+        recorder.addConsumer(RECOGNIZER_CONSUMER, recognizerFeed);
+
+        File output = new File(context.getCacheDir(), "menu_keyword.wav");
+        if (!recorder.startRecording(output.getAbsolutePath())) {
+            Log.w(TAG, "Microphone unavailable");
+            recognizerFeed.onEnd();
+            return false;
+        }
+
+        speechRecognizer.startListening(intent);
+        mainHandler.postDelayed(captureTimeout, MAX_CAPTURE_MS);
+        return true;
+    }
+
+    /**
+     * Abandons the current utterance without a result.
+     */
+    public void cancel() {
+        reset();
+        stopCapture();
+    }
+
+    public void destroy() {
+        cancel();
+        if (speechRecognizer != null) {
+            speechRecognizer.destroy();
+            speechRecognizer = null;
+        }
+    }
+
+    private void reset() {
+        attempt++;
+        mainHandler.removeCallbacks(captureTimeout);
+        listener = null;
+        AudioProcessingScheduler.getInstance().cancel(JOB_KEY);
+        if (speechRecognizer != null) {
+            speechRecognizer.cancel();
+        }
+    }
+
+    private void stopCapture() {
+        if (recorder.isRecording()) {
+            recorder.stopRecordingAsync(null);
+        }
+    }
+
+    /**
+     * @param heardSpeech false when the capture ended without the VAD hearing
+     *                    speech, in which case there is nothing to match
+     */
+    private void onSpeechEnd(boolean heardSpeech) {
+        if (listener == null || speechEnded) {
+            return;
+        }
+        speechEnded = true;
+        speechEndNanos = System.nanoTime();
+        mainHandler.removeCallbacks(captureTimeout);
+
+        FeatureMatrix collected = heardSpeech ? frames : null;
+        AudioProcessingScheduler.getInstance().submit(JOB_KEY, AudioProcessingScheduler.Priority.INTERACTIVE,
+                () -> {
+                    // Stopping drains the feature stream and ends the cloud recognizer's input
+                    recorder.stopRecording();
+                    return collected != null ? match(trimSilence(collected)) : null;
+                },
+                new AudioProcessingScheduler.Callback<KeywordMatch>() {
+                    @Override
+                    public void onResult(KeywordMatch result) {
+                        onMatched(result);
+                    }
+
+                    @Override
+                    public void onError(Exception error) {
+                        Log.e(TAG, "Keyword matching failed", error);
+                        onMatched(null);
+                    }
+                });
+    }
+
+    private void onMatched(KeywordMatch result) {
+        if (listener == null) {
+            return;
+        }
+        matched = true;
+        utterance = result != null ? result.frames : null;
+
+        if (!delivered && result != null && result.confident) {
+            Log.d(TAG, "On-device keyword " + KEYWORDS[result.keyword] + " in "
+                    + (System.nanoTime() - speechEndNanos) / 1_000_000L + " ms after speech end");
+            speechRecognizer.cancel();
+            deliver(KEYWORDS[result.keyword], true);
+            finish();
+            return;
+        }
+        if (cloudDone) {
+            finish();
+        }
+    }
+
+    private void onCloudResult(String text, float confidence) {
+        if (listener == null) {
+            return;
+        }
+        cloudDone = true;
+
+        int keyword = keywordFor(text);
+        if (keyword >= 0 && confidence >= MIN_CLOUD_CONFIDENCE) {
+            cloudKeyword = keyword;
+        }
+        deliver(text, false);
+        // Stay attached until the frames are in, so the answer can still teach a template
+        if (matched) {
+            finish();
+        }
+    }
+
+    private void onCloudError(int error) {
+        if (listener == null) {
+            return;
+        }
+        cloudDone = true;
+        cloudError = error;
+        // An on-device match in flight may still answer; the error is reported by finish() otherwise
+        if (!speechEnded) {
+            onSpeechEnd(false);
+        } else if (matched) {
+            finish();
+        }
+    }
+
+    // The cloud recognizer has the pipe, or is done with it: stop holding its read end open
+    private void releaseRecognizerFeed() {
+        if (recognizerFeed != null) {
+            recognizerFeed.releaseReadSide();
+        }
+    }
+
+    private void deliver(String text, boolean onDevice) {
+        delivered = true;
+        mainHandler.removeCallbacks(captureTimeout);
+        listener.onCommand(text, onDevice);
+    }
+
+    // Both answers are in: report a failure if neither produced a command, and learn from a labelled utterance
+    private void finish() {
+        Listener target = listener;
+        listener = null;
+
+        if (cloudKeyword >= 0 && utterance != null) {
+            int keyword = cloudKeyword;
+            FeatureMatrix take = utterance;
+            AudioProcessingScheduler.getInstance().submit(null, AudioProcessingScheduler.Priority.BACKGROUND, () -> {
+                templates[keyword].add(take);
+                Log.d(TAG, "Learned a take for " + KEYWORDS[keyword]);
+                return null;
+            });
+        }
+        if (!delivered) {
+            target.onError(cloudError);
+        }
+    }
+
+    private static int keywordFor(String text) {
+        if (text == null) {
+            return -1;
+        }
+        String normalized = text.trim();
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (normalized.equals(KEYWORDS[i])
+                    || i < DIGITS.length && (normalized.equals(DIGITS[i]) || normalized.equals(ARABIC_DIGITS[i]))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // === Matching (worker threads) ===
+
+    private static final class KeywordMatch {
+        final int keyword;
+        final boolean confident;
+        // Trimmed utterance, kept so a cloud label can turn it into a take
+        final FeatureMatrix frames;
+
+        KeywordMatch(int keyword, boolean confident, FeatureMatrix frames) {
+            this.keyword = keyword;
+            this.confident = confident;
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * Drops leading and trailing frames far quieter than the loudest one.
+     */
+    private static FeatureMatrix trimSilence(FeatureMatrix utterance) {
+        int rows = utterance.getRowCount();
+        if (rows == 0) {
+            return null;
+        }
+
+        float loudest = -Float.MAX_VALUE;
+        for (int r = 0; r < rows; r++) {
+            loudest = Math.max(loudest, utterance.get(r, 0));
+        }
+
+        float floor = loudest - SILENCE_C0_DROP;
+        int first = 0;
+        while (first < rows && utterance.get(first, 0) < floor) {
+            first++;
+        }
+        int last = rows - 1;
+        while (last > first && utterance.get(last, 0) < floor) {
+            last--;
+        }
+        if (last - first + 1 < MIN_KEYWORD_FRAMES) {
+            return null;
+        }
+
+        FeatureMatrix trimmed = new FeatureMatrix(utterance.getDimension(), last - first + 1);
+        for (int r = first; r <= last; r++) {
+            trimmed.addRow(utterance.getData(), utterance.rowOffset(r));
+        }
+        return trimmed;
+    }
+
+    private KeywordMatch match(FeatureMatrix utterance) {
+        if (utterance == null) {
+            return null;
+        }
+
+        DtwMatcher matcher = new DtwMatcher(AdvancedVoiceAnalyzer.FEATURE_DIMENSION, DTW_BAND);
+        int bestKeyword = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double secondDistance = Double.POSITIVE_INFINITY;
+        // Any other word would be forced onto a learned keyword while some have no takes
+        for (TakeStore store : templates) {
+            if (!store.hasEnoughTakes()) {
+                return new KeywordMatch(-1, false, utterance);
+            }
+        }
+
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            // Only distances that could change the best or runner-up are worth finishing
+            DtwMatcher.Match match = matcher.bestMatch(utterance, templates[k].getTakes(), secondDistance);
+            if (match == null) {
+                continue;
+            }
+            if (match.distance < bestDistance) {
+                secondDistance = bestDistance;
+                bestDistance = match.distance;
+                bestKeyword = k;
+            } else {
+                secondDistance = match.distance;
+            }
+        }
+        double acceptDistance = bestKeyword >= 0 ? templates[bestKeyword].getAcceptDistance() : 0.0;
+
+        boolean confident = bestKeyword >= 0 && bestDistance <= acceptDistance
+                && secondDistance >= bestDistance * CONFIDENCE_RATIO;
+        if (bestKeyword >= 0) {
+            Log.d(TAG, "Closest keyword " + KEYWORDS[bestKeyword] + " at " + bestDistance
+                    + " (limit " + acceptDistance + ", runner-up " + secondDistance + ")");
+        }
+        return new KeywordMatch(bestKeyword, confident, utterance);
+    }
+
+    private final class CloudListener implements RecognitionListener {
+        @Override
+        public void onReadyForSpeech(Bundle params) {
+            releaseRecognizerFeed();
+        }
+
+        @Override
+        public void onBeginningOfSpeech() {
+        }
+
+        @Override
+        public void onRmsChanged(float rmsdB) {
+        }
+
+        @Override
+        public void onBufferReceived(byte[] buffer) {
+        }
+
+        @Override
+        public void onEndOfSpeech() {
+        }
+
+        @Override
+        public void onError(int error) {
+            releaseRecognizerFeed();
+            onCloudError(error);
+        }
+
+        @Override
+        public void onResults(Bundle results) {
+            ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+            float[] confidences = results.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES);
+            if (matches == null || matches.isEmpty()) {
+                onCloudError(SpeechRecognizer.ERROR_NO_MATCH);
+                return;
+            }
+            float confidence = confidences != null && confidences.length > 0 ? confidences[0] : 0f;
+            onCloudResult(matches.get(0), confidence);
+        }
+
+        @Override
+        public void onPartialResults(Bundle partialResults) {
+        }
+
+        @Override
+        public void onEvent(int eventType, Bundle params) {
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.bank.bayan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 1:N speaker lookup. Each enrolled user is one fixed-length embedding row in
+ * a contiguous float matrix with its inverse norm precomputed, so ranking a
+ * query is a pass of blocked dot products and a small top-k selection, with
+ * no per-profile objects touched.
+ *
+ * <p>Pooled features are z-scored with population statistics over all
+ * enrollments before they are normalized, so cosine similarity measures how a
+ * voice differs from the average voice rather than the shared shape every
+ * MFCC vector has (the deviations alone are always positive). Scores are
+ * calibrated against the similarity between different enrolled users; see
+ * {@link #getImpostorScores()}.
+ */
+public class SpeakerIndex {
+
+    private static final int MFCC_COUNT = AdvancedVoiceAnalyzer.FEATURE_DIMENSION / 3;
+    // Static c1..c12 means and deviations plus delta c1..c12 deviations; c0 only tracks loudness
+    public static final int EMBEDDING_DIMENSION = (MFCC_COUNT - 1) * 3;
+
+    // Enrolled users needed before the spread of scores between them means anything
+    public static final int MIN_CALIBRATION_PROFILES = 10;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int BLOCK_ROWS = 64;
+    private static final int CALIBRATION_ROWS = 256;
+    private static final float MIN_POPULATION_STD = 1e-3f;
+    private static final float MIN_IMPOSTOR_STD = 0.02f;
+
+    public static class Match {
+        public final String userId;
+        public final float score;
+
+        Match(String userId, float score) {
+            this.userId = userId;
+            this.score = score;
+        }
+    }
+
+    private float[] vectors = new float[DEFAULT_CAPACITY * EMBEDDING_DIMENSION];
+    private float[] inverseNorms = new float[DEFAULT_CAPACITY];
+    private String[] userIds = new String[DEFAULT_CAPACITY];
+    private final Map<String, Integer> rowsByUser = new HashMap<>();
+    private int size;
+
+    private final float[] populationMean;
+    private final float[] populationInverseStd;
+    // Mean and standard deviation of the score between two enrolled users; null when stale
+    private float[] impostorScores;
+
+    /**
+     * @param population statistics of {@link #pool pooled} features over all enrollments
+     */
+    public SpeakerIndex(VoiceStatistics population) {
+        if (population == null || population.getCount() == 0
+                || population.getDimension() != EMBEDDING_DIMENSION) {
+            throw new IllegalArgumentException("Population must hold " + EMBEDDING_DIMENSION + "-value features");
+        }
+
+        populationMean = population.getMean();
+        float[] std = population.getStd();
+        populationInverseStd = new float[EMBEDDING_DIMENSION];
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            populationInverseStd[i] = 1f / Math.max(std[i], MIN_POPULATION_STD);
+        }
+    }
+
+    /**
+     * Pools a session's MFCC + delta statistics into the features an index
+     * row is built from, or returns null if the statistics do not hold full
+     * feature vectors.
+     */
+    public static float[] pool(VoiceStatistics statistics) {
+        if (statistics == null || statistics.getCount() == 0) {
+            return null;
+        }
+        return pool(statistics.getMean(), statistics.getStd());
+    }
+
+    /**
+     * Pools a stored template the same way as {@link #pool(VoiceStatistics)},
+     * from its mean and standard deviation vectors.
+     */
+    public static float[] pool(VoiceTemplate template) {
+        return template != null ? pool(template.getMeanFeatures(), template.getStdFeatures()) : null;
+    }
+
+    private static float[] pool(float[] mean, float[] std) {
+        if (mean == null || std == null || mean.length != AdvancedVoiceAnalyzer.FEATURE_DIMENSION
+                || std.length != AdvancedVoiceAnalyzer.FEATURE_DIMENSION) {
+            return null;
+        }
+
+        float[] embedding = new float[EMBEDDING_DIMENSION];
+        int stride = MFCC_COUNT - 1;
+        for (int i = 0; i < stride; i++) {
+            embedding[i] = mean[i + 1];
+            embedding[stride + i] = std[i + 1];
+            embedding[2 * stride + i] = std[MFCC_COUNT + i + 1];
+        }
+        return embedding;
+    }
+
+    /**
+     * Z-scores pooled features with the population statistics and scales them
+     * to unit length, or returns null if they are not pooled features.
+     */
+    public float[] embed(float[] features) {
+        if (features == null || features.length != EMBEDDING_DIMENSION) {
+            return null;
+        }
+
+        float[] embedding = new float[EMBEDDING_DIMENSION];
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            embedding[i] = (features[i] - populationMean[i]) * populationInverseStd[i];
+        }
+
+        float inverseNorm = inverseNorm(embedding, 0);
+        if (inverseNorm == 0f) {
+            return null;
+        }
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            embedding[i] *= inverseNorm;
+        }
+        return embedding;
+    }
+
+    /**
+     * Cosine similarity of two pooled feature vectors after z-scoring, on the
+     * same scale as {@link #search} and {@link #getImpostorScores()}; NaN if
+     * either is not pooled features.
+     */
+    public float similarity(float[] first, float[] second) {
+        float[] a = embed(first);
+        float[] b = embed(second);
+        if (a == null || b == null) {
+            return Float.NaN;
+        }
+
+        double dot = 0.0;
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            dot += a[i] * b[i];
+        }
+        return (float) dot;
+    }
+
+    /**
+     * Adds or replaces the user's profile from their pooled features.
+     */
+    public synchronized void put(String userId, float[] features) {
+        float[] embedding = embed(features);
+        if (embedding == null) {
+            throw new IllegalArgumentException("Features must be " + EMBEDDING_DIMENSION + " non-average values");
+        }
+
+        Integer existing = rowsByUser.get(userId);
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            ensureCapacity(size + 1);
+            row = size++;
+            userIds[row] = userId;
+            rowsByUser.put(userId, row);
+        }
+
+        System.arraycopy(embedding, 0, vectors, row * EMBEDDING_DIMENSION, EMBEDDING_DIMENSION);
+        inverseNorms[row] = inverseNorm(vectors, row * EMBEDDING_DIMENSION);
+        impostorScores = null;
+    }
+
+    public synchronized boolean remove(String userId) {
+        Integer row = rowsByUser.remove(userId);
+        if (row == null) {
+            return false;
+        }
+
+        // Move the last row into the hole to keep the matrix dense
+        int last = --size;
+        if (row != last) {
+            System.arraycopy(vectors, last * EMBEDDING_DIMENSION, vectors, row * EMBEDDING_DIMENSION, EMBEDDING_DIMENSION);
+            inverseNorms[row] = inverseNorms[last];
+            userIds[row] = userIds[last];
+            rowsByUser.put(userIds[row], row);
+        }
+        userIds[last] = null;
+        impostorScores = null;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        rowsByUser.clear();
+        Arrays.fill(userIds, 0, size, null);
+        size = 0;
+        impostorScores = null;
+    }
+
+    /**
+     * Mean and standard deviation of the cosine similarity between two
+     * different enrolled users (over at most the first 256), i.e. the scores
+     * an impostor gets; null while fewer than MIN_CALIBRATION_PROFILES are
+     * enrolled.
+     */
+    public synchronized float[] getImpostorScores() {
+        if (size < MIN_CALIBRATION_PROFILES) {
+            return null;
+        }
+        if (impostorScores != null) {
+            return impostorScores.clone();
+        }
+
+        int rows = Math.min(size, CALIBRATION_ROWS);
+        float[] scores = new float[BLOCK_ROWS];
+        double count = 0, mean = 0, m2 = 0;
+        for (int row = 1; row < rows; row++) {
+            int base = row * EMBEDDING_DIMENSION;
+            for (int blockStart = 0; blockStart < row; blockStart += BLOCK_ROWS) {
+                int blockEnd = Math.min(row, blockStart + BLOCK_ROWS);
+                scoreBlock(vectors, base, blockStart, blockEnd, scores);
+                for (int other = blockStart; other < blockEnd; other++) {
+                    double score = scores[other - blockStart] * inverseNorms[row] * inverseNorms[other];
+                    double delta = score - mean;
+                    mean += delta / ++count;
+                    m2 += delta * (score - mean);
+                }
+            }
+        }
+
+        impostorScores = new float[]{(float) mean, (float) Math.max(Math.sqrt(m2 / count), MIN_IMPOSTOR_STD)};
+        return impostorScores.clone();
+    }
+
+    /**
+     * The k enrolled users most similar to the pooled features by cosine similarity, best first.
+     */
+    public synchronized List<Match> search(float[] features, int k) {
+        List<Match> matches = new ArrayList<>();
+        float[] query = embed(features);
+        if (query == null || size == 0 || k <= 0) {
+            return matches;
+        }
+
+        float queryInverseNorm = inverseNorm(query, 0);
+        if (queryInverseNorm == 0f) {
+            return matches;
+        }
+
+        int limit = Math.min(k, size);
+        float[] bestScores = new float[limit];
+        int[] bestRows = new int[limit];
+        Arrays.fill(bestScores, -Float.MAX_VALUE);
+        float[] blockScores = new float[BLOCK_ROWS];
+
+        for (int blockStart = 0; blockStart < size; blockStart += BLOCK_ROWS) {
+            int blockEnd = Math.min(size, blockStart + BLOCK_ROWS);
+            scoreBlock(query, 0, blockStart, blockEnd, blockScores);
+
+            for (int row = blockStart; row < blockEnd; row++) {
+                float score = blockScores[row - blockStart] * inverseNorms[row] * queryInverseNorm;
+                if (score > bestScores[limit - 1]) {
+                    insert(bestScores, bestRows, score, row);
+                }
+            }
+        }
+
+        for (int i = 0; i < limit; i++) {
+            matches.add(new Match(userIds[bestRows[i]], bestScores[i]));
+        }
+        return matches;
+    }
+
+    private void scoreBlock(float[] query, int queryOffset, int blockStart, int blockEnd, float[] out) {
+        float[] matrix = vectors;
+        int unrolled = EMBEDDING_DIMENSION & ~3;
+        for (int row = blockStart; row < blockEnd; row++) {
+            int base = row * EMBEDDING_DIMENSION;
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            int i = 0;
+            for (; i < unrolled; i += 4) {
+                s0 += query[queryOffset + i] * matrix[base + i];
+                s1 += query[queryOffset + i + 1] * matrix[base + i + 1];
+                s2 += query[queryOffset + i + 2] * matrix[base + i + 2];
+                s3 += query[queryOffset + i + 3] * matrix[base + i + 3];
+            }
+            for (; i < EMBEDDING_DIMENSION; i++) {
+                s0 += query[queryOffset + i] * matrix[base + i];
+            }
+            out[row - blockStart] = (s0 + s1) + (s2 + s3);
+        }
+    }
+
+    // Insertion into the descending top-k arrays, dropping the current last entry
+    private static void insert(float[] scores, int[] rows, float score, int row) {
+        int position = scores.length - 1;
+        while (position > 0 && scores[position - 1] < score) {
+            scores[position] = scores[position - 1];
+            rows[position] = rows[position - 1];
+            position--;
+        }
+        scores[position] = score;
+        rows[position] = row;
+    }
+
+    private static float inverseNorm(float[] data, int offset) {
+        double sumSquares = 0.0;
+        for (int i = 0; i < EMBEDDING_DIMENSION; i++) {
+            float value = data[offset + i];
+            sumSquares += value * value;
+        }
+        return sumSquares > 0.0 ? (float) (1.0 / Math.sqrt(sumSquares)) : 0f;
+    }
+
+    private void ensureCapacity(int rowCount) {
+        if (rowCount > userIds.length) {
+            int capacity = Math.max(rowCount, userIds.length * 2);
+            vectors = Arrays.copyOf(vectors, capacity * EMBEDDING_DIMENSION);
+            inverseNorms = Arrays.copyOf(inverseNorms, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+        }
+    }
+}
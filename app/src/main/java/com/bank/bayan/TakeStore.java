@@ -0,0 +1,204 @@
+package com.bank.bayan;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The user's recorded takes of one word or phrase, for DTW matching.
+ *
+ * <p>Takes are kept in memory as prepared references and on disk as
+ * VoiceCodec vectors named by prefix and time, at most maxTakes of each,
+ * dropping the oldest. Once there are minTakes, a match is accepted within
+ * the accept factor times the takes' mean DTW distance to each other, so the
+ * limit follows how consistently the user says the word.
+ *
+ * <p>Thread-safe; file access happens under the same lock as the takes, so
+ * what is in memory always matches what is stored.
+ */
+public class TakeStore {
+
+    private static final String TAG = "TakeStore";
+    private static final String SUFFIX = ".bin";
+
+    private final File directory;
+    private final String prefix;
+    private final int maxTakes;
+    private final int minTakes;
+    private final float band;
+    private final List<DtwMatcher.Reference> takes = new ArrayList<>();
+    private double acceptFactor;
+    // 0 until there are minTakes
+    private volatile double acceptDistance;
+
+    /**
+     * @param prefix       file name prefix that keeps this word's takes apart from others in the directory
+     * @param band         Sakoe-Chiba band of the DtwMatcher the takes are prepared for
+     * @param acceptFactor accept distance as a multiple of the takes' mean distance to each other
+     */
+    public TakeStore(File directory, String prefix, int maxTakes, int minTakes, float band, double acceptFactor) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxTakes = maxTakes;
+        this.minTakes = minTakes;
+        this.band = band;
+        this.acceptFactor = acceptFactor;
+    }
+
+    public synchronized void setAcceptFactor(double factor) {
+        this.acceptFactor = factor;
+        updateAcceptDistance();
+    }
+
+    /**
+     * Farthest a query may be from its best take, or 0 while there are too few takes.
+     */
+    public double getAcceptDistance() {
+        return acceptDistance;
+    }
+
+    /**
+     * The current takes, oldest first.
+     */
+    public synchronized List<DtwMatcher.Reference> getTakes() {
+        return new ArrayList<>(takes);
+    }
+
+    public synchronized boolean hasEnoughTakes() {
+        return takes.size() >= minTakes;
+    }
+
+    /**
+     * Adds a take and stores it; the oldest take is dropped beyond maxTakes.
+     */
+    public synchronized void add(FeatureMatrix take) {
+        takes.add(new DtwMatcher(take.getDimension(), band).prepare(take));
+        if (takes.size() > maxTakes) {
+            takes.remove(0);
+        }
+        updateAcceptDistance();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + directory);
+            return;
+        }
+
+        float[] data = Arrays.copyOf(take.getData(), take.getRowCount() * take.getDimension());
+        File file = new File(directory, prefix + System.currentTimeMillis() + SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(VoiceCodec.toBytes(VoiceCodec.encode(data)));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save take " + file.getName(), e);
+            file.delete();
+        }
+
+        File[] files = files(directory, prefix);
+        for (int i = 0; i < files.length - maxTakes; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Replaces the takes in memory with the stored ones, dropping unreadable files.
+     */
+    public synchronized void load() {
+        int dimension = AdvancedVoiceAnalyzer.FEATURE_DIMENSION;
+        DtwMatcher loader = new DtwMatcher(dimension, band);
+
+        takes.clear();
+        File[] files = files(directory, prefix);
+        for (int i = Math.max(0, files.length - maxTakes); i < files.length; i++) {
+            File file = files[i];
+            try {
+                float[] data = VoiceCodec.decodeVector(ByteBuffer.wrap(readFile(file)));
+                if (data.length == 0 || data.length % dimension != 0) {
+                    continue;
+                }
+                FeatureMatrix take = new FeatureMatrix(dimension, data.length / dimension);
+                for (int offset = 0; offset < data.length; offset += dimension) {
+                    take.addRow(data, offset);
+                }
+                takes.add(loader.prepare(take));
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Dropping unreadable take " + file.getName(), e);
+                file.delete();
+            }
+        }
+        updateAcceptDistance();
+    }
+
+    /**
+     * Forgets every take, in memory and stored.
+     */
+    public synchronized void clear() {
+        takes.clear();
+        updateAcceptDistance();
+        for (File file : files(directory, prefix)) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Number of takes stored under the prefix, without loading them.
+     */
+    public static int countStored(File directory, String prefix) {
+        return files(directory, prefix).length;
+    }
+
+    // Caller holds the lock
+    private void updateAcceptDistance() {
+        int count = takes.size();
+        if (count < minTakes) {
+            acceptDistance = 0.0;
+            return;
+        }
+
+        DtwMatcher pairMatcher = new DtwMatcher(AdvancedVoiceAnalyzer.FEATURE_DIMENSION, band);
+        double total = 0.0;
+        int pairs = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                double distance = i != j
+                        ? pairMatcher.distance(takes.get(i).getFrames(), takes.get(j), Double.POSITIVE_INFINITY)
+                        : Double.POSITIVE_INFINITY;
+                if (!Double.isInfinite(distance)) {
+                    total += distance;
+                    pairs++;
+                }
+            }
+        }
+        acceptDistance = pairs > 0 ? acceptFactor * total / pairs : 0.0;
+    }
+
+    // Stored takes, oldest first
+    private static File[] files(File directory, String prefix) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return files;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("Truncated take " + file.getName());
+                }
+                read += count;
+            }
+        }
+        return bytes;
+    }
+}
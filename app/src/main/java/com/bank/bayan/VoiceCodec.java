@@ -0,0 +1,336 @@
+package com.bank.bayan;
+
+import com.bank.bayan.audio.AudioFeatureExtractor;
+import com.bank.bayan.audio.VoiceFingerprint;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * Compact little-endian binary form of {@link AudioFeatureExtractor.VoiceFeatures},
+ * {@link VoiceTemplate} and plain float vectors such as speaker embeddings,
+ * with a Base64 wrapper for storing in Firebase.
+ *
+ * <p>Every payload starts with an 8-byte header: magic "BV", format version,
+ * payload kind, flags and the vector dimension. Scalars are float32; vectors
+ * are float32 or, with {@link #FLAG_HALF_PRECISION}, float16. Decoding reads
+ * straight from the buffer into the result arrays, through a little-endian
+ * view so the caller's byte order is left alone.
+ */
+public final class VoiceCodec {
+
+    // 2: fingerprints are VoiceFingerprint bit words instead of text
+    public static final int VERSION = 2;
+
+    private static final short MAGIC = 0x5642; // "BV" little-endian
+    private static final int HEADER_SIZE = 8;
+    private static final byte KIND_FEATURES = 1;
+    private static final byte KIND_TEMPLATE = 2;
+    private static final byte KIND_VECTOR = 3;
+    private static final int FLAG_HALF_PRECISION = 1;
+
+    private static final int FEATURE_SCALARS = 6;
+    private static final int TEMPLATE_SCALARS = 6;
+    private static final int TEMPLATE_VECTORS = 4;
+
+    private VoiceCodec() {
+    }
+
+    // === VoiceFeatures ===
+
+    public static ByteBuffer encode(AudioFeatureExtractor.VoiceFeatures features) {
+        int dimension = features.mfccFeatures != null ? features.mfccFeatures.length : 0;
+        long[] fingerprint = features.voiceFingerprint != null ? features.voiceFingerprint : new long[0];
+
+        ByteBuffer buffer = allocate(FEATURE_SCALARS * 4 + dimension * 4 + 1 + fingerprint.length * 8);
+        writeHeader(buffer, KIND_FEATURES, 0, dimension);
+
+        buffer.putFloat((float) features.duration);
+        buffer.putFloat((float) features.averageAmplitude);
+        buffer.putFloat((float) features.averagePitch);
+        buffer.putFloat((float) features.speechRate);
+        buffer.putFloat((float) features.spectralCentroid);
+        buffer.putFloat((float) features.spectralRolloff);
+        for (int i = 0; i < dimension; i++) {
+            buffer.putFloat((float) features.mfccFeatures[i]);
+        }
+        buffer.put((byte) fingerprint.length);
+        for (long word : fingerprint) {
+            buffer.putLong(word);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes features from the buffer's position, advancing it past the payload.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a supported features payload
+     */
+    public static AudioFeatureExtractor.VoiceFeatures decodeFeatures(ByteBuffer source) {
+        ByteBuffer buffer = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        int dimension = readHeader(buffer, KIND_FEATURES);
+        int version = buffer.get(start + 2) & 0xFF;
+
+        AudioFeatureExtractor.VoiceFeatures features = new AudioFeatureExtractor.VoiceFeatures();
+        features.duration = buffer.getFloat();
+        features.averageAmplitude = buffer.getFloat();
+        features.averagePitch = buffer.getFloat();
+        features.speechRate = buffer.getFloat();
+        features.spectralCentroid = buffer.getFloat();
+        features.spectralRolloff = buffer.getFloat();
+
+        if (dimension > 0) {
+            features.mfccFeatures = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                features.mfccFeatures[i] = buffer.getFloat();
+            }
+        }
+
+        if (version == 1) {
+            // Text fingerprints from version 1 are not comparable with the current ones; skip them
+            int fingerprintLength = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + fingerprintLength);
+        } else {
+            int words = buffer.get() & 0xFF;
+            if (words == VoiceFingerprint.WORDS) {
+                features.voiceFingerprint = new long[words];
+                buffer.asLongBuffer().get(features.voiceFingerprint);
+            }
+            buffer.position(buffer.position() + words * 8);
+        }
+
+        source.position(buffer.position());
+        return features;
+    }
+
+    public static String toBase64(AudioFeatureExtractor.VoiceFeatures features) {
+        return Base64.getEncoder().encodeToString(toBytes(encode(features)));
+    }
+
+    public static AudioFeatureExtractor.VoiceFeatures featuresFromBase64(String encoded) {
+        return decodeFeatures(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+    }
+
+    // === VoiceTemplate ===
+
+    /**
+     * @param halfPrecision store the feature vectors as float16, halving their size
+     */
+    public static ByteBuffer encode(VoiceTemplate template, boolean halfPrecision) {
+        float[] mean = template.getMeanFeatures();
+        int dimension = mean != null ? mean.length : 0;
+        int valueSize = halfPrecision ? 2 : 4;
+
+        ByteBuffer buffer = allocate(TEMPLATE_SCALARS * 4 + 4 + TEMPLATE_VECTORS * dimension * valueSize);
+        writeHeader(buffer, KIND_TEMPLATE, halfPrecision ? FLAG_HALF_PRECISION : 0, dimension);
+
+        buffer.putFloat(template.getFundamentalFrequency());
+        buffer.putFloat(template.getSpectralCentroid());
+        buffer.putFloat(template.getSpectralRolloff());
+        buffer.putFloat(template.getZeroCrossingRate());
+        buffer.putFloat(template.getMfccVariance());
+        buffer.putFloat(template.getQualityScore());
+        buffer.putInt(template.getFrameCount());
+
+        writeVector(buffer, mean, dimension, halfPrecision);
+        writeVector(buffer, template.getStdFeatures(), dimension, halfPrecision);
+        writeVector(buffer, template.getMinFeatures(), dimension, halfPrecision);
+        writeVector(buffer, template.getMaxFeatures(), dimension, halfPrecision);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a template from the buffer's position, advancing it past the payload.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a supported template payload
+     */
+    public static VoiceTemplate decodeTemplate(ByteBuffer source) {
+        ByteBuffer buffer = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        int dimension = readHeader(buffer, KIND_TEMPLATE);
+        int flags = buffer.get(start + 4);
+        boolean halfPrecision = (flags & FLAG_HALF_PRECISION) != 0;
+
+        VoiceTemplate template = new VoiceTemplate();
+        template.setFundamentalFrequency(buffer.getFloat());
+        template.setSpectralCentroid(buffer.getFloat());
+        template.setSpectralRolloff(buffer.getFloat());
+        template.setZeroCrossingRate(buffer.getFloat());
+        template.setMfccVariance(buffer.getFloat());
+        template.setQualityScore(buffer.getFloat());
+        template.setFrameCount(buffer.getInt());
+
+        template.setMeanFeatures(readVector(buffer, dimension, halfPrecision));
+        template.setStdFeatures(readVector(buffer, dimension, halfPrecision));
+        template.setMinFeatures(readVector(buffer, dimension, halfPrecision));
+        template.setMaxFeatures(readVector(buffer, dimension, halfPrecision));
+
+        source.position(buffer.position());
+        return template;
+    }
+
+    public static String toBase64(VoiceTemplate template, boolean halfPrecision) {
+        return Base64.getEncoder().encodeToString(toBytes(encode(template, halfPrecision)));
+    }
+
+    public static VoiceTemplate templateFromBase64(String encoded) {
+        return decodeTemplate(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+    }
+
+    // === Vectors ===
+
+    public static ByteBuffer encode(float[] vector) {
+        ByteBuffer buffer = allocate(vector.length * 4);
+        writeHeader(buffer, KIND_VECTOR, 0, vector.length);
+        writeVector(buffer, vector, vector.length, false);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes a vector from the buffer's position, advancing it past the payload.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a vector payload
+     */
+    public static float[] decodeVector(ByteBuffer source) {
+        ByteBuffer buffer = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int dimension = readHeader(buffer, KIND_VECTOR);
+        float[] vector = readVector(buffer, dimension, false);
+        source.position(buffer.position());
+        return vector;
+    }
+
+    public static String toBase64(float[] vector) {
+        return Base64.getEncoder().encodeToString(toBytes(encode(vector)));
+    }
+
+    public static float[] vectorFromBase64(String encoded) {
+        return decodeVector(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+    }
+
+    // === Helpers ===
+
+    public static byte[] toBytes(ByteBuffer encoded) {
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer allocate(int bodySize) {
+        return ByteBuffer.allocate(HEADER_SIZE + bodySize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeHeader(ByteBuffer buffer, byte kind, int flags, int dimension) {
+        buffer.putShort(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put(kind);
+        buffer.put((byte) flags);
+        buffer.put((byte) 0);
+        buffer.putShort((short) dimension);
+    }
+
+    private static int readHeader(ByteBuffer buffer, byte expectedKind) {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getShort() != MAGIC) {
+            throw new IllegalArgumentException("Not a voice payload");
+        }
+        int version = buffer.get() & 0xFF;
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported voice payload version " + version);
+        }
+        byte kind = buffer.get();
+        if (kind != expectedKind) {
+            throw new IllegalArgumentException("Unexpected voice payload kind " + kind);
+        }
+        buffer.get(); // flags, read by the caller
+        buffer.get();
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    private static void writeVector(ByteBuffer buffer, float[] values, int dimension, boolean halfPrecision) {
+        for (int i = 0; i < dimension; i++) {
+            float value = values != null && i < values.length ? values[i] : 0f;
+            if (halfPrecision) {
+                buffer.putShort(toHalf(value));
+            } else {
+                buffer.putFloat(value);
+            }
+        }
+    }
+
+    private static float[] readVector(ByteBuffer buffer, int dimension, boolean halfPrecision) {
+        float[] values = new float[dimension];
+        if (halfPrecision) {
+            for (int i = 0; i < dimension; i++) {
+                values[i] = toFloat(buffer.getShort());
+            }
+        } else {
+            buffer.asFloatBuffer().get(values);
+            buffer.position(buffer.position() + dimension * 4);
+        }
+        return values;
+    }
+
+    /**
+     * Rounds a float to the nearest IEEE 754 binary16 value, ties to even.
+     * Out-of-range magnitudes become infinity and tiny ones subnormals or zero.
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7FFFFFFF;
+        int exponent = magnitude >>> 23;
+        int mantissa = magnitude & 0x7FFFFF;
+
+        if (exponent == 0xFF) {
+            return (short) (sign | (mantissa != 0 ? 0x7E00 : 0x7C00));
+        }
+        if (exponent >= 143) { // 2^16 and above
+            return (short) (sign | 0x7C00);
+        }
+
+        int half;
+        int shift;
+        if (exponent >= 113) { // normal in binary16
+            half = ((exponent - 112) << 10) | (mantissa >>> 13);
+            shift = 13;
+        } else {
+            shift = 126 - exponent;
+            if (shift > 24) { // below half the smallest subnormal
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            half = mantissa >>> shift;
+        }
+
+        // A carry out of the mantissa moves to the next exponent, up to infinity
+        int remainder = mantissa & ((1 << shift) - 1);
+        int midpoint = 1 << (shift - 1);
+        if (remainder > midpoint || (remainder == midpoint && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    /** Widens an IEEE 754 binary16 value to float; exact for every input. */
+    static float toFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1F;
+        int mantissa = bits & 0x3FF;
+
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float subnormal = mantissa * 0x1p-24f;
+            return sign != 0 ? -subnormal : subnormal;
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,83 @@
+package com.bank.bayan;
+
+import com.bank.bayan.audio.PcmRingBuffer;
+
+/**
+ * Capture-side feature stream: attach it to the recorder as a ring consumer
+ * and it frames the PCM, runs the analyzer's MFCC path and hands every
+ * MFCC + delta + delta-delta vector to the listener as soon as the delta
+ * window allows. Every vector and every frame's F0, centroid and rolloff are
+ * also accumulated into a VoiceStatistics, which is complete once the stream
+ * ends. Runs entirely on the consumer thread and owns its analyzer.
+ */
+public class VoiceFeatureStream implements PcmRingBuffer.Consumer {
+
+    private static final int FRAME_SIZE = 1024;
+    private static final int FRAME_SHIFT = 512;
+
+    public interface FeatureFrameListener {
+        /**
+         * The features array is reused for the next frame; copy it to keep it.
+         */
+        void onFeatureFrame(float[] features);
+
+        void onStreamEnd();
+    }
+
+    private final AdvancedVoiceAnalyzer analyzer = new AdvancedVoiceAnalyzer();
+    private final int sampleRate;
+    private final FeatureFrameListener listener;
+    private final VoiceStatistics statistics = new VoiceStatistics(AdvancedVoiceAnalyzer.FEATURE_DIMENSION);
+
+    private final float[] frame = new float[FRAME_SIZE];
+    private final float[] features = new float[AdvancedVoiceAnalyzer.FEATURE_DIMENSION];
+    private int frameFill;
+
+    public VoiceFeatureStream(int sampleRate, FeatureFrameListener listener) {
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onSamples(short[] samples, int length) {
+        for (int i = 0; i < length; i++) {
+            frame[frameFill++] = samples[i] / 32768f;
+
+            if (frameFill == FRAME_SIZE) {
+                if (analyzer.pushFeatureFrame(frame, sampleRate, features)) {
+                    deliver();
+                }
+                statistics.addSpectralFrame(analyzer.getFramePitch(),
+                        analyzer.getFrameSpectralCentroid(), analyzer.getFrameSpectralRolloff());
+                System.arraycopy(frame, FRAME_SHIFT, frame, 0, FRAME_SIZE - FRAME_SHIFT);
+                frameFill = FRAME_SIZE - FRAME_SHIFT;
+            }
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        while (analyzer.flushFeatureFrame(features)) {
+            deliver();
+        }
+        analyzer.resetFeatureStream();
+        frameFill = 0;
+        if (listener != null) {
+            listener.onStreamEnd();
+        }
+    }
+
+    private void deliver() {
+        statistics.add(features);
+        if (listener != null) {
+            listener.onFeatureFrame(features);
+        }
+    }
+
+    /**
+     * Statistics of everything streamed so far; read after onStreamEnd.
+     */
+    public VoiceStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -14,6 +14,7 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.bank.bayan.audio.VoicePassphraseVerifier;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
@@ -41,8 +42,11 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
 
     private enum AppState {
         INITIAL_QUESTION,
+        LOGIN_PASSPHRASE,
         LOGIN_IDENTIFY,
+        LOGIN_VERIFY,
         REGISTER_IDENTIFY,
+        ENROLL_PASSPHRASE,
         PROCESSING
     }
 
@@ -51,6 +55,16 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
     private static final int MAX_LOGIN_ATTEMPTS = 3;
 
     private String userIdentifier = "";
+    private String newUserId;
+
+    // In standard deviations of the scores between different enrolled users
+    private static final float SPEAKER_MATCH_MARGIN = 1.0f;
+
+    // Null until the population statistics it is normalized with are loaded
+    private SpeakerIndex speakerIndex;
+    private VoiceVerificationPipeline verificationPipeline;
+    private String expectedPassphrase;
+    private VoiceVerificationPipeline.SpeakerScorer pendingScorer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -67,6 +81,60 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
         usersReference = databaseReference.child("users");
 
         Log.d(TAG, "Firebase initialized successfully");
+        loadSpeakerIndex();
+    }
+
+    private void loadSpeakerIndex() {
+        databaseReference.child("voice_population").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Object value = dataSnapshot.getValue();
+                VoiceStatistics population = null;
+                if (value instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) value;
+                    population = VoiceStatistics.fromMap(map);
+                }
+
+                try {
+                    loadSpeakerProfiles(new SpeakerIndex(population));
+                } catch (IllegalArgumentException e) {
+                    Log.d(TAG, "No voice population yet; login by voice alone is off");
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.e(TAG, "Failed to load voice population: " + databaseError.getMessage());
+            }
+        });
+    }
+
+    private void loadSpeakerProfiles(SpeakerIndex index) {
+        databaseReference.child("voice_index").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                for (DataSnapshot entry : dataSnapshot.getChildren()) {
+                    String encoded = entry.child("features").getValue(String.class);
+                    if (encoded == null) {
+                        continue;
+                    }
+
+                    try {
+                        index.put(entry.getKey(), VoiceCodec.vectorFromBase64(encoded));
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Skipping invalid voice index entry " + entry.getKey());
+                    }
+                }
+                speakerIndex = index;
+                Log.d(TAG, "Speaker index loaded: " + index.size() + " profiles");
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.e(TAG, "Failed to load speaker index: " + databaseError.getMessage());
+            }
+        });
     }
 
     private void initializeViews() {
@@ -195,6 +263,12 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
     }
 
     private void startListening() {
+        if (currentState == AppState.LOGIN_PASSPHRASE || currentState == AppState.LOGIN_VERIFY
+                || currentState == AppState.ENROLL_PASSPHRASE) {
+            capturePassphrase();
+            return;
+        }
+
         if (speechRecognizer != null) {
             speechRecognizer.startListening(speechRecognizerIntent);
         }
@@ -225,9 +299,15 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
         String normalizedResponse = response.trim().toLowerCase();
 
         if (normalizedResponse.contains("نعم") || normalizedResponse.contains("yes")) {
-            currentState = AppState.LOGIN_IDENTIFY;
             loginAttempts = 0;
-            speakText("من فضلك عرف عن نفسك بالاسم أو الرقم");
+            if (speakerIndex != null && speakerIndex.getImpostorScores() != null) {
+                currentState = AppState.LOGIN_PASSPHRASE;
+                pendingScorer = VoiceVerificationPipeline.forIndex(speakerIndex, SPEAKER_MATCH_MARGIN);
+                promptPassphrase("من فضلك قل عبارة المرور: ");
+            } else {
+                currentState = AppState.LOGIN_IDENTIFY;
+                speakText("من فضلك عرف عن نفسك بالاسم أو الرقم");
+            }
 
         } else if (normalizedResponse.contains("لا") || normalizedResponse.contains("no")) {
             currentState = AppState.REGISTER_IDENTIFY;
@@ -266,17 +346,7 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
                                 String userId = userSnapshot.child("userId").getValue(String.class);
 
                                 if (verifyVoiceprint(identifier, storedVoiceprint)) {
-                                    runOnUiThread(() -> {
-                                        speakText("مرحباً بك " + identifier + ". تم تسجيل الدخول بنجاح");
-
-                                        voiceIcon.postDelayed(() -> {
-                                            Intent intent = new Intent(VoiceLoginActivity.this, HomeActivity.class);
-                                            intent.putExtra("user_name", identifier);
-                                            intent.putExtra("userId", userId);
-                                            startActivity(intent);
-                                            finish();
-                                        }, 3000);
-                                    });
+                                    runOnUiThread(() -> verifyWithTemplate(identifier, userId));
                                     return;
                                 }
                             }
@@ -342,17 +412,11 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
                                         .addOnSuccessListener(aVoid -> {
                                             Log.d(TAG, "User created successfully");
                                             runOnUiThread(() -> {
-                                                speakText("تم إنشاء حسابك بنجاح باسم " + identifier +
-                                                        ". يمكنك الآن تسجيل الدخول باستخدام صوتك");
-
-                                                voiceIcon.postDelayed(() -> {
-                                                    Intent intent = new Intent(VoiceLoginActivity.this, HomeActivity.class);
-                                                    intent.putExtra("user_name", identifier);
-                                                    intent.putExtra("userId",userId);
-                                                    intent.putExtra("is_new_user", true);
-                                                    startActivity(intent);
-                                                    finish();
-                                                }, 3000);
+                                                newUserId = userId;
+                                                currentState = AppState.ENROLL_PASSPHRASE;
+                                                pendingScorer = null;
+                                                promptPassphrase("تم إنشاء حسابك بنجاح باسم " + identifier +
+                                                        ". لتسجيل بصمتك الصوتية قل: ");
                                             });
                                         })
                                         .addOnFailureListener(e -> {
@@ -381,6 +445,226 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
                 });
     }
 
+    private void completeLogin(String name, String userId) {
+        speakText("مرحباً بك " + name + ". تم تسجيل الدخول بنجاح");
+        voiceIcon.postDelayed(() -> openHome(name, userId, false), 3000);
+    }
+
+    private void openHome(String name, String userId, boolean isNewUser) {
+        Intent intent = new Intent(VoiceLoginActivity.this, HomeActivity.class);
+        intent.putExtra("user_name", name);
+        intent.putExtra("userId", userId);
+        if (isNewUser) {
+            intent.putExtra("is_new_user", true);
+        }
+        startActivity(intent);
+        finish();
+    }
+
+    private void promptPassphrase(String prompt) {
+        expectedPassphrase = VoicePassphraseVerifier.getRandomPassphrase();
+        speakText(prompt + expectedPassphrase);
+    }
+
+    /**
+     * A user found by name who has an enrolled template must also pass the
+     * passphrase check against it; accounts from before enrollment log in as before.
+     * A template that exists but cannot be loaded counts as a failed attempt.
+     */
+    private void verifyWithTemplate(String name, String userId) {
+        new FirebaseDataManager(this, userId).loadVoiceTemplate(new FirebaseDataManager.VoiceTemplateCallback() {
+            @Override
+            public void onTemplateLoaded(VoiceTemplate template) {
+                if (speakerIndex == null) {
+                    // Without the population the template score has no scale to be judged on
+                    Log.e(TAG, "Voice population unavailable; cannot verify " + userId);
+                    handleAuthenticationFailure();
+                    return;
+                }
+                userIdentifier = name;
+                currentState = AppState.LOGIN_VERIFY;
+                pendingScorer = VoiceVerificationPipeline.forTemplate(userId, template, speakerIndex);
+                promptPassphrase("للتحقق من هويتك قل: ");
+            }
+
+            @Override
+            public void onNotEnrolled() {
+                Log.d(TAG, "No voice template for " + userId);
+                completeLogin(name, userId);
+            }
+
+            @Override
+            public void onError(String error) {
+                // The user is enrolled but the template could not be checked; never skip the check
+                Log.e(TAG, "Voice template unavailable for " + userId + ": " + error);
+                handleAuthenticationFailure();
+            }
+        });
+    }
+
+    /**
+     * Listens for the passphrase through the verification pipeline, which
+     * checks the words and the voice from one capture. The activity's own
+     * recognizer is idle meanwhile.
+     */
+    private void capturePassphrase() {
+        if (verificationPipeline == null) {
+            verificationPipeline = new VoiceVerificationPipeline(this);
+        }
+
+        AppState purpose = currentState;
+        boolean started = verificationPipeline.start(expectedPassphrase, pendingScorer,
+                decision -> onPassphraseDecision(purpose, decision));
+        if (!started) {
+            Log.w(TAG, "Passphrase capture unavailable");
+            onPassphraseDecision(purpose, null);
+            return;
+        }
+
+        currentState = AppState.PROCESSING;
+        voiceFeedbackText.setText("أستمع إليك الآن...");
+    }
+
+    private void onPassphraseDecision(AppState purpose, VoiceVerificationPipeline.Decision decision) {
+        if (isFinishing() || isDestroyed()) {
+            return;
+        }
+
+        if (purpose == AppState.ENROLL_PASSPHRASE) {
+            enrollVoice(decision != null ? decision.statistics : null);
+            return;
+        }
+
+        if (decision != null && decision.accepted) {
+            if (purpose == AppState.LOGIN_VERIFY) {
+                refineEnrollment(decision.userId, decision.statistics);
+                completeLogin(userIdentifier, decision.userId);
+            } else {
+                completeSpeakerLogin(decision);
+            }
+            return;
+        }
+
+        onPassphraseRejected(purpose);
+    }
+
+    private void onPassphraseRejected(AppState purpose) {
+        if (purpose == AppState.LOGIN_VERIFY) {
+            handleAuthenticationFailure();
+        } else {
+            currentState = AppState.LOGIN_IDENTIFY;
+            speakText("لم أتعرف على صوتك. من فضلك عرف عن نفسك بالاسم أو الرقم");
+        }
+    }
+
+    /**
+     * The voice index carries no names, so the matched user's is read only now.
+     */
+    private void completeSpeakerLogin(VoiceVerificationPipeline.Decision decision) {
+        String userId = decision.userId;
+        usersReference.child(userId).child("name").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                String name = dataSnapshot.getValue(String.class);
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                if (name == null) {
+                    onPassphraseRejected(AppState.LOGIN_PASSPHRASE);
+                    return;
+                }
+
+                refineEnrollment(userId, decision.statistics);
+                completeLogin(name, userId);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                Log.e(TAG, "Firebase error: " + databaseError.getMessage());
+                if (!isFinishing() && !isDestroyed()) {
+                    onPassphraseRejected(AppState.LOGIN_PASSPHRASE);
+                }
+            }
+        });
+    }
+
+    /**
+     * Folds an accepted login's statistics into the user's stored ones and
+     * saves both them and the template rebuilt from them, so the template
+     * follows the voice as it changes. Without stored statistics nothing is
+     * overwritten.
+     */
+    private void refineEnrollment(String userId, VoiceStatistics session) {
+        if (userId == null || session == null) {
+            return;
+        }
+
+        FirebaseDataManager dataManager = new FirebaseDataManager(this, userId);
+        dataManager.loadVoiceStatistics(new FirebaseDataManager.VoiceStatisticsCallback() {
+            @Override
+            public void onStatisticsLoaded(VoiceStatistics stored) {
+                AdvancedVoiceAnalyzer analyzer = new AdvancedVoiceAnalyzer();
+                VoiceTemplate template = analyzer.refineVoiceTemplate(analyzer.createVoiceTemplate(stored), session);
+                if (template == null || template.getStatistics() == null) {
+                    return;
+                }
+
+                FirebaseDataManager.OperationCallback logResult = logResult();
+                dataManager.saveVoiceStatistics(template.getStatistics(), logResult);
+                dataManager.saveVoiceTemplate(template, logResult);
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.d(TAG, "Voice template of " + userId + " not refined: " + error);
+            }
+        });
+    }
+
+    private FirebaseDataManager.OperationCallback logResult() {
+        return new FirebaseDataManager.OperationCallback() {
+            @Override
+            public void onSuccess(String message) {
+                Log.d(TAG, message);
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, error);
+            }
+        };
+    }
+
+    private void enrollVoice(VoiceStatistics statistics) {
+        String userId = newUserId;
+        String name = userIdentifier;
+        float[] features = SpeakerIndex.pool(statistics);
+
+        if (statistics != null && features != null) {
+            FirebaseDataManager dataManager = new FirebaseDataManager(this, userId);
+            FirebaseDataManager.OperationCallback logResult = logResult();
+
+            dataManager.saveVoiceStatistics(statistics, logResult);
+            dataManager.saveVoiceTemplate(new AdvancedVoiceAnalyzer().createVoiceTemplate(statistics), logResult);
+            dataManager.saveSpeakerFeatures(features, logResult);
+            dataManager.addToVoicePopulation(features, logResult);
+            if (speakerIndex != null) {
+                try {
+                    speakerIndex.put(userId, features);
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Voice features not added to the local index");
+                }
+            }
+
+            speakText("تم تسجيل بصمتك الصوتية. يمكنك الآن تسجيل الدخول باستخدام صوتك");
+        } else {
+            speakText("لم أتمكن من تسجيل بصمتك الصوتية. يمكنك تسجيل الدخول باسمك");
+        }
+
+        currentState = AppState.PROCESSING;
+        voiceIcon.postDelayed(() -> openHome(name, userId, true), 3000);
+    }
+
     private String generateVoiceprint(String identifier) {
         return identifier.toLowerCase().trim();
     }
@@ -445,6 +729,10 @@ public class VoiceLoginActivity extends AppCompatActivity implements TextToSpeec
         if (speechRecognizer != null) {
             speechRecognizer.destroy();
         }
+
+        if (verificationPipeline != null) {
+            verificationPipeline.destroy();
+        }
     }
 
     @Override
@@ -0,0 +1,430 @@
+package com.bank.bayan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-pass statistics over feature frames for building a voice template.
+ * Mean and variance per dimension use Welford's algorithm, alongside min, max,
+ * energy and the frame-shape measures the template stores. Frames can be added
+ * as they are produced, and partial results from different threads or
+ * sessions combine with {@link #merge(VoiceStatistics)}, so no frame has to
+ * be kept in memory. Not thread-safe; merge per-thread instances instead.
+ *
+ * <p>Frames are counted as weights, so {@link #decay(double)} can fade old
+ * sessions out and {@link #toMap()} persists the whole accumulator in a
+ * constant size, letting a stored template be refined without raw audio.
+ */
+public class VoiceStatistics {
+
+    private static final String KEY_DIMENSION = "dimension";
+    private static final String KEY_WEIGHT = "weight";
+    private static final String KEY_MEAN = "mean";
+    private static final String KEY_M2 = "m2";
+    private static final String KEY_MIN = "min";
+    private static final String KEY_MAX = "max";
+    private static final String KEY_ENERGY = "energy";
+    private static final String KEY_PITCH_SUM = "pitchSum";
+    private static final String KEY_PITCH_WEIGHT = "pitchWeight";
+    private static final String KEY_CENTROID_SUM = "centroidSum";
+    private static final String KEY_ROLLOFF_SUM = "rolloffSum";
+    private static final String KEY_SPECTRAL_WEIGHT = "spectralWeight";
+    private static final String KEY_ZERO_CROSSINGS = "zeroCrossings";
+
+    private int dimension = -1;
+    private double count;
+
+    private double[] mean;
+    private double[] m2;
+    private float[] min;
+    private float[] max;
+
+    private double energy;
+    private double zeroCrossings;
+
+    // Per-frame spectral measures, in Hz; pitch only over voiced frames
+    private double pitchSum;
+    private double pitchWeight;
+    private double centroidSum;
+    private double rolloffSum;
+    private double spectralWeight;
+
+    public VoiceStatistics() {
+    }
+
+    public VoiceStatistics(int dimension) {
+        init(dimension);
+    }
+
+    /**
+     * Adds one frame. The first frame fixes the dimension; frames of another length are ignored.
+     *
+     * @return whether the frame was added
+     */
+    public boolean add(float[] frame) {
+        return frame != null && add(frame, 0, frame.length);
+    }
+
+    /**
+     * Adds the frame stored at data[offset, offset + length).
+     */
+    public boolean add(float[] data, int offset, int length) {
+        if (length <= 0) {
+            return false;
+        }
+        if (dimension < 0) {
+            init(length);
+        }
+        if (length != dimension) {
+            return false;
+        }
+
+        count++;
+        float previous = 0;
+        for (int i = 0; i < dimension; i++) {
+            float value = data[offset + i];
+
+            double delta = value - mean[i];
+            mean[i] += delta / count;
+            m2[i] += delta * (value - mean[i]);
+
+            if (value < min[i]) min[i] = value;
+            if (value > max[i]) max[i] = value;
+
+            energy += value * value;
+            if (i > 0 && (value > 0) != (previous > 0)) {
+                zeroCrossings++;
+            }
+            previous = value;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the spectral measures of one analysis frame.
+     *
+     * @param pitchHz fundamental frequency, or 0 for an unvoiced frame
+     */
+    public void addSpectralFrame(double pitchHz, double centroidHz, double rolloffHz) {
+        if (pitchHz > 0) {
+            pitchSum += pitchHz;
+            pitchWeight++;
+        }
+        if (centroidHz >= 0 && rolloffHz >= 0) {
+            centroidSum += centroidHz;
+            rolloffSum += rolloffHz;
+            spectralWeight++;
+        }
+    }
+
+    /**
+     * Adds every row of a feature matrix.
+     */
+    public void addAll(FeatureMatrix frames) {
+        if (frames == null || frames.isEmpty()) {
+            return;
+        }
+
+        float[] data = frames.getData();
+        int dimension = frames.getDimension();
+        for (int row = 0; row < frames.getRowCount(); row++) {
+            add(data, frames.rowOffset(row), dimension);
+        }
+    }
+
+    /**
+     * Folds another accumulator into this one (Chan et al. pairwise update).
+     */
+    public void merge(VoiceStatistics other) {
+        if (other == null) {
+            return;
+        }
+        pitchSum += other.pitchSum;
+        pitchWeight += other.pitchWeight;
+        centroidSum += other.centroidSum;
+        rolloffSum += other.rolloffSum;
+        spectralWeight += other.spectralWeight;
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            init(other.dimension);
+        } else if (other.dimension != dimension) {
+            throw new IllegalArgumentException("Dimension mismatch: " + dimension + " vs " + other.dimension);
+        }
+
+        double total = count + other.count;
+        for (int i = 0; i < dimension; i++) {
+            double delta = other.mean[i] - mean[i];
+            mean[i] += delta * other.count / total;
+            m2[i] += other.m2[i] + delta * delta * (count * other.count / total);
+            min[i] = Math.min(min[i], other.min[i]);
+            max[i] = Math.max(max[i], other.max[i]);
+        }
+        count = total;
+        energy += other.energy;
+        zeroCrossings += other.zeroCrossings;
+    }
+
+    public VoiceStatistics copy() {
+        VoiceStatistics copy = new VoiceStatistics();
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * Scales the weight of everything accumulated so far by factor in (0, 1].
+     * Means and variances are unchanged; later frames simply count for more.
+     * Min and max are pulled toward the mean by the same factor, so an old
+     * extreme fades out instead of bounding the range forever.
+     */
+    public void decay(double factor) {
+        if (factor >= 1.0) {
+            return;
+        }
+        pitchSum *= factor;
+        pitchWeight *= factor;
+        centroidSum *= factor;
+        rolloffSum *= factor;
+        spectralWeight *= factor;
+        if (count == 0) {
+            return;
+        }
+        count *= factor;
+        for (int i = 0; i < dimension; i++) {
+            m2[i] *= factor;
+            min[i] = (float) (mean[i] - (mean[i] - min[i]) * factor);
+            max[i] = (float) (mean[i] + (max[i] - mean[i]) * factor);
+        }
+        energy *= factor;
+        zeroCrossings *= factor;
+    }
+
+    /**
+     * Decays the accumulator so its weight does not exceed maxWeight frames.
+     */
+    public void capWeight(double maxWeight) {
+        if (count > maxWeight) {
+            decay(maxWeight / count);
+        }
+    }
+
+    public void reset() {
+        dimension = -1;
+        count = 0;
+        mean = null;
+        m2 = null;
+        min = null;
+        max = null;
+        energy = 0;
+        zeroCrossings = 0;
+        pitchSum = 0;
+        pitchWeight = 0;
+        centroidSum = 0;
+        rolloffSum = 0;
+        spectralWeight = 0;
+    }
+
+    private void init(int dimension) {
+        this.dimension = dimension;
+        this.mean = new double[dimension];
+        this.m2 = new double[dimension];
+        this.min = new float[dimension];
+        this.max = new float[dimension];
+        Arrays.fill(min, Float.MAX_VALUE);
+        Arrays.fill(max, -Float.MAX_VALUE);
+    }
+
+    /**
+     * Number of frames accumulated, after decay.
+     */
+    public long getCount() {
+        return Math.round(count);
+    }
+
+    public double getWeight() {
+        return count;
+    }
+
+    public int getDimension() {
+        return Math.max(dimension, 0);
+    }
+
+    public float[] getMean() {
+        float[] result = new float[getDimension()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) mean[i];
+        }
+        return result;
+    }
+
+    /**
+     * Population standard deviation per dimension.
+     */
+    public float[] getStd() {
+        float[] result = new float[getDimension()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) Math.sqrt(count > 0 ? m2[i] / count : 0);
+        }
+        return result;
+    }
+
+    public float[] getMin() {
+        return count > 0 ? min.clone() : new float[0];
+    }
+
+    public float[] getMax() {
+        return count > 0 ? max.clone() : new float[0];
+    }
+
+    /**
+     * Population variance averaged over all dimensions.
+     */
+    public float getMeanVariance() {
+        if (count == 0) return 0;
+
+        double total = 0;
+        for (int i = 0; i < dimension; i++) {
+            total += m2[i];
+        }
+        return (float) (total / (count * dimension));
+    }
+
+    /**
+     * Mean squared value scaled to [0, 1].
+     */
+    public float getSignalStrength() {
+        if (count == 0) return 0;
+        return (float) Math.min(1.0, energy / (count * dimension) * 1000);
+    }
+
+    /**
+     * Sign changes between neighbouring values within a frame, per value.
+     */
+    public float getZeroCrossingRate() {
+        if (count == 0) return 0;
+        return (float) (zeroCrossings / (count * dimension));
+    }
+
+    /**
+     * Mean fundamental frequency of voiced frames in Hz, or 0 if none were voiced.
+     */
+    public float getFundamentalFrequency() {
+        return pitchWeight > 0 ? (float) (pitchSum / pitchWeight) : 0;
+    }
+
+    /**
+     * Mean spectral centroid in Hz, or 0 without spectral frames.
+     */
+    public float getSpectralCentroid() {
+        return spectralWeight > 0 ? (float) (centroidSum / spectralWeight) : 0;
+    }
+
+    /**
+     * Mean 85% energy rolloff frequency in Hz, or 0 without spectral frames.
+     */
+    public float getSpectralRolloff() {
+        return spectralWeight > 0 ? (float) (rolloffSum / spectralWeight) : 0;
+    }
+
+    /**
+     * Enrollment quality from frame consistency and signal strength, in [0, 1].
+     */
+    public float getQualityScore() {
+        if (count == 0) return 0;
+
+        float consistency = 1.0f - getMeanVariance();
+        return Math.max(0, Math.min(1, (consistency + getSignalStrength()) / 2));
+    }
+
+    /**
+     * Firebase-friendly form: numbers and lists of numbers only.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(KEY_DIMENSION, getDimension());
+        map.put(KEY_WEIGHT, count);
+        map.put(KEY_ENERGY, energy);
+        map.put(KEY_PITCH_SUM, pitchSum);
+        map.put(KEY_PITCH_WEIGHT, pitchWeight);
+        map.put(KEY_CENTROID_SUM, centroidSum);
+        map.put(KEY_ROLLOFF_SUM, rolloffSum);
+        map.put(KEY_SPECTRAL_WEIGHT, spectralWeight);
+        map.put(KEY_ZERO_CROSSINGS, zeroCrossings);
+        if (count > 0) {
+            map.put(KEY_MEAN, toList(mean));
+            map.put(KEY_M2, toList(m2));
+            map.put(KEY_MIN, toList(min));
+            map.put(KEY_MAX, toList(max));
+        }
+        return map;
+    }
+
+    /**
+     * Restores an accumulator written by toMap(), or returns null if the map is not one.
+     */
+    public static VoiceStatistics fromMap(Map<String, Object> map) {
+        if (map == null || !(map.get(KEY_WEIGHT) instanceof Number)) {
+            return null;
+        }
+
+        VoiceStatistics statistics = new VoiceStatistics();
+        double weight = ((Number) map.get(KEY_WEIGHT)).doubleValue();
+        if (weight <= 0) {
+            return statistics;
+        }
+
+        List<?> mean = asList(map.get(KEY_MEAN));
+        List<?> m2 = asList(map.get(KEY_M2));
+        List<?> min = asList(map.get(KEY_MIN));
+        List<?> max = asList(map.get(KEY_MAX));
+        int dimension = mean.size();
+        if (dimension == 0 || m2.size() != dimension || min.size() != dimension || max.size() != dimension) {
+            return null;
+        }
+
+        statistics.init(dimension);
+        statistics.count = weight;
+        for (int i = 0; i < dimension; i++) {
+            statistics.mean[i] = ((Number) mean.get(i)).doubleValue();
+            statistics.m2[i] = ((Number) m2.get(i)).doubleValue();
+            statistics.min[i] = ((Number) min.get(i)).floatValue();
+            statistics.max[i] = ((Number) max.get(i)).floatValue();
+        }
+        statistics.energy = asDouble(map.get(KEY_ENERGY));
+        statistics.pitchSum = asDouble(map.get(KEY_PITCH_SUM));
+        statistics.pitchWeight = asDouble(map.get(KEY_PITCH_WEIGHT));
+        statistics.centroidSum = asDouble(map.get(KEY_CENTROID_SUM));
+        statistics.rolloffSum = asDouble(map.get(KEY_ROLLOFF_SUM));
+        statistics.spectralWeight = asDouble(map.get(KEY_SPECTRAL_WEIGHT));
+        statistics.zeroCrossings = asDouble(map.get(KEY_ZERO_CROSSINGS));
+        return statistics;
+    }
+
+    private static List<Double> toList(double[] values) {
+        List<Double> list = new ArrayList<>(values.length);
+        for (double value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static List<Double> toList(float[] values) {
+        List<Double> list = new ArrayList<>(values.length);
+        for (float value : values) {
+            list.add((double) value);
+        }
+        return list;
+    }
+
+    private static List<?> asList(Object value) {
+        return value instanceof List ? (List<?>) value : new ArrayList<>();
+    }
+
+    private static double asDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+}
@@ -12,6 +12,7 @@ public class VoiceTemplate {
     private float mfccVariance;
     private int frameCount;
     private float qualityScore;
+    private VoiceStatistics statistics;
 
     public VoiceTemplate() {
     }
@@ -104,6 +105,17 @@ public class VoiceTemplate {
         this.qualityScore = qualityScore;
     }
 
+    /**
+     * Sufficient statistics the template was built from, used to refine it after later logins.
+     */
+    public VoiceStatistics getStatistics() {
+        return statistics;
+    }
+
+    public void setStatistics(VoiceStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     public boolean isValid() {
         return meanFeatures != null && meanFeatures.length > 0 && qualityScore > 0.3f;
     }
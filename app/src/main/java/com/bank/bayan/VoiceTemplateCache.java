@@ -0,0 +1,189 @@
+package com.bank.bayan;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Two-tier store of users' voice templates: decoded templates in a memory LRU
+ * and their binary encodings in app-private storage, both tagged with the
+ * template version stored next to the template in Firebase. A lookup with a
+ * different version drops the stale entry, so a re-enrollment on another
+ * device is picked up on the next login. Both tiers are bounded by bytes.
+ */
+public class VoiceTemplateCache {
+
+    private static final String TAG = "VoiceTemplateCache";
+    private static final String DIRECTORY = "voice_templates";
+    private static final String EXTENSION = ".bin";
+    private static final int MEMORY_BYTES = 256 * 1024;
+    private static final long DISK_BYTES = 2 * 1024 * 1024;
+
+    private static VoiceTemplateCache instance;
+
+    private static final class Entry {
+        final long version;
+        final VoiceTemplate template;
+        final int size;
+
+        Entry(long version, VoiceTemplate template, int size) {
+            this.version = version;
+            this.template = template;
+            this.size = size;
+        }
+    }
+
+    private final File directory;
+    private final LruCache<String, Entry> memory = new LruCache<String, Entry>(MEMORY_BYTES) {
+        @Override
+        protected int sizeOf(String userId, Entry entry) {
+            return entry.size;
+        }
+    };
+
+    private VoiceTemplateCache(Context context) {
+        directory = new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    public static synchronized VoiceTemplateCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new VoiceTemplateCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * The cached template for userId if it is at the given version, otherwise null.
+     */
+    public synchronized VoiceTemplate get(String userId, long version) {
+        Entry entry = memory.get(userId);
+        if (entry != null) {
+            if (entry.version == version) {
+                return entry.template;
+            }
+            invalidate(userId);
+            return null;
+        }
+
+        File file = fileFor(userId);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(readFile(file)).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getLong() != version) {
+                invalidate(userId);
+                return null;
+            }
+            int size = buffer.remaining();
+            VoiceTemplate template = VoiceCodec.decodeTemplate(buffer);
+            memory.put(userId, new Entry(version, template, size));
+            file.setLastModified(System.currentTimeMillis());
+            return template;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable cached template for " + userId, e);
+            invalidate(userId);
+            return null;
+        }
+    }
+
+    public synchronized void put(String userId, long version, VoiceTemplate template) {
+        ByteBuffer encoded = VoiceCodec.encode(template, false);
+        int size = encoded.remaining();
+        memory.put(userId, new Entry(version, template, size));
+
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(version);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Cannot create template cache directory");
+            return;
+        }
+
+        try (FileOutputStream out = new FileOutputStream(fileFor(userId))) {
+            out.write(header.array());
+            out.write(VoiceCodec.toBytes(encoded));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache template for " + userId, e);
+            fileFor(userId).delete();
+            return;
+        }
+
+        trimDisk();
+    }
+
+    public synchronized void invalidate(String userId) {
+        memory.remove(userId);
+        fileFor(userId).delete();
+    }
+
+    public synchronized void clear() {
+        memory.evictAll();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private File fileFor(String userId) {
+        return new File(directory, userId + EXTENSION);
+    }
+
+    // Deletes least recently used files until the store fits in DISK_BYTES
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+
+        while (total > DISK_BYTES) {
+            File oldest = null;
+            for (File file : files) {
+                if (file != null && (oldest == null || file.lastModified() < oldest.lastModified())) {
+                    oldest = file;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+
+            total -= oldest.length();
+            oldest.delete();
+            for (int i = 0; i < files.length; i++) {
+                if (files[i] == oldest) {
+                    files[i] = null;
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read = 0;
+            while (read < bytes.length) {
+                int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) {
+                    throw new IOException("Truncated template file");
+                }
+                read += count;
+            }
+        }
+        return bytes;
+    }
+}
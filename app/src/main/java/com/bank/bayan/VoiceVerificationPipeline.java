@@ -0,0 +1,465 @@
+package com.bank.bayan;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import com.bank.bayan.audio.AudioProcessingScheduler;
+import com.bank.bayan.audio.AudioRecorderPCM;
+import com.bank.bayan.audio.RecognizerAudioFeed;
+import com.bank.bayan.audio.VoicePassphraseVerifier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One passphrase attempt, verified by what was said and by who said it.
+ *
+ * <p>A single AudioRecord capture fans out through the recorder's ring
+ * buffer: one consumer streams MFCC features into a VoiceStatistics, and on
+ * Android 13+ a {@link RecognizerAudioFeed} pipes the same PCM into the
+ * SpeechRecognizer. When the voice detector reports the end of speech, the
+ * acoustic score is computed on the processing scheduler while the
+ * recognizer finalizes, and the two scores are fused.
+ * The decision is delivered at most {@link #DECISION_BUDGET_MS} after the end
+ * of speech; a recognizer that has not answered by then is left out. A
+ * recognizer that answers with an error or without a transcript scores the
+ * text as 0, since a wrong phrase typically ends in ERROR_NO_MATCH.
+ *
+ * <p>Older releases cannot share the microphone with the recognizer, so there
+ * the decision is acoustic only and held to a stricter threshold.
+ * All callbacks arrive on the main thread.
+ */
+public class VoiceVerificationPipeline {
+
+    private static final String TAG = "VoiceVerification";
+
+    public static final long DECISION_BUDGET_MS = 400;
+    private static final long MAX_CAPTURE_MS = 6000;
+    private static final int MIN_SPEECH_FRAMES = 20;
+    private static final String FEATURE_CONSUMER = "verification-features";
+    private static final String RECOGNIZER_CONSUMER = "verification-recognizer";
+    private static final String JOB_KEY = "voice-verification";
+
+    private static final double ACOUSTIC_WEIGHT = 0.6;
+    private static final double TEXT_WEIGHT = 0.4;
+    private static final double ACCEPT_THRESHOLD = 0.8;
+    private static final double ACOUSTIC_ONLY_THRESHOLD = 0.9;
+    // The voice must pass on its own too; a perfect transcript can't carry a weak match
+    static final double MIN_ACOUSTIC_SCORE = 0.8;
+    // An index match this many impostor deviations above the impostor mean scores 1,
+    // so MIN_ACOUSTIC_SCORE is 4 and ACOUSTIC_ONLY_THRESHOLD 4.5 deviations
+    private static final float FULL_SCORE_DEVIATIONS = 5f;
+    // Until the index can measure impostor scores, take z-scored voices of different
+    // people as unrelated directions: cosine mean 0, deviation 1/sqrt(dimension)
+    private static final float[] PRIOR_IMPOSTOR_SCORES =
+            {0f, (float) (1.0 / Math.sqrt(SpeakerIndex.EMBEDDING_DIMENSION))};
+
+    /**
+     * Scores a session against the enrolled voice(s). Runs on a worker thread.
+     */
+    public interface SpeakerScorer {
+        /**
+         * @return the claimed user and a similarity in [0, 1], or null if nobody matches
+         */
+        SpeakerIndex.Match score(VoiceStatistics session);
+    }
+
+    public interface DecisionCallback {
+        /**
+         * @param decision the outcome, or null if the microphone could not be opened
+         */
+        void onDecision(Decision decision);
+    }
+
+    public static class Decision {
+        public boolean accepted;
+        public String userId;
+        public double acousticScore;
+        // NaN when no recognizer was available or it missed the budget; 0 when it failed
+        public double textScore = Double.NaN;
+        public double fusedScore;
+        public String recognizedText;
+        public VoiceStatistics statistics;
+        public boolean withinBudget;
+        // Stage name to milliseconds, in pipeline order
+        public final Map<String, Long> stageTimings = new LinkedHashMap<>();
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AudioRecorderPCM recorder;
+    private final boolean sharedRecognizer;
+    private SpeechRecognizer speechRecognizer;
+    private RecognizerAudioFeed recognizerFeed;
+
+    // Per-attempt state, touched only on the main thread
+    private int attempt;
+    private DecisionCallback callback;
+    private SpeakerScorer scorer;
+    private String expectedPassphrase;
+    private VoiceFeatureStream featureStream;
+    private Decision decision;
+    private long startNanos;
+    private long speechEndNanos;
+    private boolean speechEnded;
+    private boolean acousticDone;
+    private boolean recognitionDone;
+
+    private final Runnable captureTimeout = this::onSpeechEnd;
+    private final Runnable budgetTimeout = this::decide;
+
+    public VoiceVerificationPipeline(Context context) {
+        this.context = context;
+        this.recorder = new AudioRecorderPCM(context);
+        this.sharedRecognizer = RecognizerAudioFeed.isSupported()
+                && SpeechRecognizer.isRecognitionAvailable(context);
+        recorder.setSpeechEndListener(() -> mainHandler.post(this::onSpeechEnd));
+    }
+
+    /**
+     * Scores against every profile in the index, measured in standard
+     * deviations of the scores between different enrolled users. The best
+     * match must beat the runner-up by minMarginDeviations to count, and
+     * nothing matches while the index is too small to calibrate.
+     */
+    public static SpeakerScorer forIndex(SpeakerIndex index, float minMarginDeviations) {
+        return session -> {
+            float[] impostor = index.getImpostorScores();
+            List<SpeakerIndex.Match> candidates = impostor != null
+                    ? index.search(SpeakerIndex.pool(session), 2) : Collections.emptyList();
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            SpeakerIndex.Match best = candidates.get(0);
+            float deviations = (best.score - impostor[0]) / impostor[1];
+            float runnerUp = candidates.size() > 1 ? (candidates.get(1).score - impostor[0]) / impostor[1] : 0f;
+            if (deviations - runnerUp < minMarginDeviations) {
+                return null;
+            }
+            return new SpeakerIndex.Match(best.userId, toScore(deviations));
+        };
+    }
+
+    /**
+     * Scores against one user's stored template on the index's scale: the
+     * z-scored similarity of the template and the session, in impostor
+     * deviations. While too few users are enrolled to measure the impostor
+     * scores, a prior for unrelated voices stands in for them.
+     */
+    public static SpeakerScorer forTemplate(String userId, VoiceTemplate template, SpeakerIndex index) {
+        float[] enrolled = SpeakerIndex.pool(template);
+        return session -> {
+            float similarity = index.similarity(enrolled, SpeakerIndex.pool(session));
+            if (Float.isNaN(similarity)) {
+                return null;
+            }
+            float[] impostor = index.getImpostorScores();
+            if (impostor == null) {
+                impostor = PRIOR_IMPOSTOR_SCORES;
+            }
+            float deviations = (similarity - impostor[0]) / impostor[1];
+            return new SpeakerIndex.Match(userId, toScore(deviations));
+        };
+    }
+
+    private static float toScore(float deviations) {
+        return Math.max(0f, Math.min(1f, deviations / FULL_SCORE_DEVIATIONS));
+    }
+
+    /**
+     * Starts listening for the passphrase. If the previous attempt's capture
+     * is still being torn down, the microphone opens once it is released, and
+     * a failure to open it then arrives as a null decision.
+     *
+     * @param scorer the acoustic check, or null to only capture (as for enrollment)
+     * @return false if the microphone could not be opened
+     */
+    public boolean start(String passphrase, SpeakerScorer scorer, DecisionCallback callback) {
+        cancel();
+
+        this.callback = callback;
+        this.scorer = scorer;
+        this.expectedPassphrase = passphrase;
+        this.decision = new Decision();
+        this.speechEnded = false;
+        this.acousticDone = false;
+        this.recognitionDone = !sharedRecognizer;
+
+        if (recorder.isStopPending()) {
+            // Opening the mic now would block the main thread until the old capture is released
+            int current = ++attempt;
+            recorder.stopRecordingAsync(() -> {
+                if (current == attempt && !startCapture()) {
+                    cancel();
+                    callback.onDecision(null);
+                }
+            });
+            return true;
+        }
+
+        if (!startCapture()) {
+            cancel();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean startCapture() {
+        startNanos = System.nanoTime();
+        featureStream = new VoiceFeatureStream(recorder.getSampleRate(), null);
+        recorder.addConsumer(FEATURE_CONSUMER, featureStream);
+        if (sharedRecognizer) {
+            startRecognizer();
+        } else {
+            recorder.removeConsumer(RECOGNIZER_CONSUMER);
+        }
+
+        File output = new File(context.getCacheDir(), "voice_verification.wav");
+        if (!recorder.startRecording(output.getAbsolutePath())) {
+            Log.w(TAG, "Microphone unavailable");
+            if (recognizerFeed != null) {
+                recognizerFeed.onEnd();
+            }
+            return false;
+        }
+
+        mainHandler.postDelayed(captureTimeout, MAX_CAPTURE_MS);
+        return true;
+    }
+
+    /**
+     * Abandons the current attempt without a decision.
+     */
+    public void cancel() {
+        attempt++;
+        mainHandler.removeCallbacks(captureTimeout);
+        mainHandler.removeCallbacks(budgetTimeout);
+        callback = null;
+        AudioProcessingScheduler.getInstance().cancel(JOB_KEY);
+        if (speechRecognizer != null) {
+            speechRecognizer.cancel();
+        }
+        if (recorder.isRecording()) {
+            recorder.stopRecordingAsync(null);
+        }
+    }
+
+    public void destroy() {
+        cancel();
+        if (speechRecognizer != null) {
+            speechRecognizer.destroy();
+            speechRecognizer = null;
+        }
+    }
+
+    private void startRecognizer() {
+        if (speechRecognizer == null) {
+            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(context);
+            speechRecognizer.setRecognitionListener(new PassphraseListener());
+        }
+
+        Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, "ar-SA");
+        intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, context.getPackageName());
+        intent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, 3);
+
+        recognizerFeed = RecognizerAudioFeed.create(intent, recorder.getSampleRate());
+        if (recognizerFeed == null) {
+            recognitionDone = true;
+            recorder.removeConsumer(RECOGNIZER_CONSUMER);
+            return;
+        }
+
+        recorder.addConsumer(RECOGNIZER_CONSUMER, recognizerFeed);
+        speechRecognizer.startListening(intent);
+    }
+
+    // The recognizer has the pipe, or is done with it: stop holding its read end open
+    private void releaseRecognizerFeed() {
+        if (recognizerFeed != null) {
+            recognizerFeed.releaseReadSide();
+        }
+    }
+
+    private void onSpeechEnd() {
+        if (callback == null || speechEnded) {
+            return;
+        }
+        speechEnded = true;
+        speechEndNanos = System.nanoTime();
+        recordStage("speech", startNanos, speechEndNanos);
+        mainHandler.removeCallbacks(captureTimeout);
+        mainHandler.postDelayed(budgetTimeout, DECISION_BUDGET_MS);
+
+        AudioRecorderPCM capture = recorder;
+        VoiceFeatureStream stream = featureStream;
+        SpeakerScorer speakerScorer = scorer;
+
+        AudioProcessingScheduler.getInstance().submit(JOB_KEY, AudioProcessingScheduler.Priority.INTERACTIVE,
+                () -> {
+                    // Stopping closes the ring, which ends the recognizer feed and drains the feature stream
+                    capture.stopRecording();
+                    long drained = System.nanoTime();
+                    VoiceStatistics statistics = stream.getStatistics();
+                    SpeakerIndex.Match match = speakerScorer != null && statistics.getCount() >= MIN_SPEECH_FRAMES
+                            ? speakerScorer.score(statistics) : null;
+                    return new AcousticResult(statistics, match, drained, System.nanoTime());
+                },
+                new AudioProcessingScheduler.Callback<AcousticResult>() {
+                    @Override
+                    public void onResult(AcousticResult result) {
+                        onAcousticResult(result);
+                    }
+
+                    @Override
+                    public void onError(Exception error) {
+                        Log.e(TAG, "Acoustic scoring failed", error);
+                        onAcousticResult(null);
+                    }
+                });
+    }
+
+    private void onAcousticResult(AcousticResult result) {
+        if (callback == null) {
+            return;
+        }
+
+        if (result != null) {
+            recordStage("drain", speechEndNanos, result.drainedNanos);
+            recordStage("acoustic", result.drainedNanos, result.scoredNanos);
+            decision.statistics = result.statistics.getCount() >= MIN_SPEECH_FRAMES ? result.statistics : null;
+            if (result.match != null) {
+                decision.userId = result.match.userId;
+                decision.acousticScore = result.match.score;
+            }
+        }
+        acousticDone = true;
+        if (recognitionDone) {
+            decide();
+        }
+    }
+
+    /**
+     * @param text the best transcript, or null if the recognizer failed or heard nothing
+     */
+    private void onRecognition(String text) {
+        if (callback == null || recognitionDone) {
+            return;
+        }
+
+        recognitionDone = true;
+        long now = System.nanoTime();
+        recordStage("recognition", speechEnded ? speechEndNanos : startNanos, now);
+        decision.recognizedText = text;
+        decision.textScore = text != null
+                ? VoicePassphraseVerifier.verifyPassphrase(text, expectedPassphrase).textSimilarity : 0.0;
+        if (acousticDone) {
+            decide();
+        }
+    }
+
+    private void decide() {
+        DecisionCallback target = callback;
+        if (target == null || !speechEnded) {
+            return;
+        }
+        callback = null;
+        mainHandler.removeCallbacks(budgetTimeout);
+
+        long decidedNanos = System.nanoTime();
+        recordStage("decision", speechEndNanos, decidedNanos);
+        decision.withinBudget = acousticDone && recognitionDone;
+
+        if (Double.isNaN(decision.textScore)) {
+            decision.fusedScore = decision.acousticScore;
+            decision.accepted = decision.userId != null && decision.acousticScore >= ACOUSTIC_ONLY_THRESHOLD;
+        } else {
+            decision.fusedScore = ACOUSTIC_WEIGHT * decision.acousticScore + TEXT_WEIGHT * decision.textScore;
+            decision.accepted = decision.userId != null && decision.fusedScore >= ACCEPT_THRESHOLD
+                    && decision.acousticScore >= MIN_ACOUSTIC_SCORE;
+        }
+
+        if (speechRecognizer != null && !recognitionDone) {
+            speechRecognizer.cancel();
+        }
+
+        Log.d(TAG, "Decision accepted=" + decision.accepted + " acoustic=" + decision.acousticScore
+                + " text=" + decision.textScore + " fused=" + decision.fusedScore
+                + " timings=" + decision.stageTimings);
+        target.onDecision(decision);
+    }
+
+    private void recordStage(String stage, long fromNanos, long toNanos) {
+        decision.stageTimings.put(stage, (toNanos - fromNanos) / 1_000_000L);
+    }
+
+    private static final class AcousticResult {
+        final VoiceStatistics statistics;
+        final SpeakerIndex.Match match;
+        final long drainedNanos;
+        final long scoredNanos;
+
+        AcousticResult(VoiceStatistics statistics, SpeakerIndex.Match match, long drainedNanos, long scoredNanos) {
+            this.statistics = statistics;
+            this.match = match;
+            this.drainedNanos = drainedNanos;
+            this.scoredNanos = scoredNanos;
+        }
+    }
+
+    private final class PassphraseListener implements RecognitionListener {
+        @Override
+        public void onReadyForSpeech(Bundle params) {
+            releaseRecognizerFeed();
+        }
+
+        @Override
+        public void onBeginningOfSpeech() {
+        }
+
+        @Override
+        public void onRmsChanged(float rmsdB) {
+        }
+
+        @Override
+        public void onBufferReceived(byte[] buffer) {
+        }
+
+        @Override
+        public void onEndOfSpeech() {
+        }
+
+        @Override
+        public void onError(int error) {
+            Log.w(TAG, "Recognizer error " + error);
+            releaseRecognizerFeed();
+            onRecognition(null);
+        }
+
+        @Override
+        public void onResults(Bundle results) {
+            ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+            onRecognition(matches != null && !matches.isEmpty() ? matches.get(0) : null);
+        }
+
+        @Override
+        public void onPartialResults(Bundle partialResults) {
+        }
+
+        @Override
+        public void onEvent(int eventType, Bundle params) {
+        }
+    }
+}
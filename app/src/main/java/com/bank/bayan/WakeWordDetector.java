@@ -0,0 +1,320 @@
+package com.bank.bayan;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Low-power detector for the wake phrase "مساعد البنك".
+ *
+ * <p>Every 10 ms block passes through an energy gate that follows the
+ * background noise floor. That costs a sum of squares per block. MFCC
+ * extraction and DTW matching run only while the gate is open, that is
+ * from 200 ms before the first loud block until the sound stops or becomes
+ * too long for the phrase. The detector also counts the time it spends
+ * against the audio it has processed. If that share goes over the CPU
+ * budget, for example with a television playing, the gate stays shut until
+ * the share falls back under it.
+ *
+ * <p>The takes of the phrase come from the user's own voice, recorded only
+ * while the user has asked to enroll: in {@link #setEnrolling enrollment}
+ * each gated utterance goes to the listener instead of being matched, so
+ * something else can confirm it and hand it back through
+ * {@link #addTemplate}. Outside enrollment nothing is matched until there
+ * are {@link #MIN_TAKES}. The takes live in a {@link TakeStore}, whose
+ * acceptance distance scales with how far the takes are from each other.
+ *
+ * <p>{@link #process} and the listener run on the capture thread; templates
+ * may be added from any thread.
+ */
+public class WakeWordDetector {
+
+    private static final String TAG = "WakeWordDetector";
+
+    public static final String WAKE_PHRASE = "مساعد البنك";
+    public static final int MIN_TAKES = 2;
+
+    private static final int BLOCK_MS = 10;
+    private static final int PRE_ROLL_BLOCKS = 20;
+    private static final int GATE_OPEN_BLOCKS = 3;
+    private static final int GATE_CLOSE_BLOCKS = 20;
+    private static final int MIN_SPEECH_BLOCKS = 30;
+    private static final int MAX_UTTERANCE_BLOCKS = 180;
+    // About 6 dB above the noise floor opens the gate
+    private static final float GATE_RATIO = 4f;
+    private static final float MIN_NOISE_FLOOR = 100f;
+    private static final float FLOOR_FALL = 0.05f;
+    // Slow enough that a phrase never becomes the floor, fast enough that steady noise does within seconds
+    private static final float FLOOR_RISE = 0.002f;
+    private static final double BUDGET_WINDOW_SECONDS = 10.0;
+    private static final int MAX_TAKES = 3;
+    private static final float DTW_BAND = 0.2f;
+    private static final String DIRECTORY = "wake_word";
+
+    public static final float DEFAULT_CPU_BUDGET = 0.05f;
+    public static final float DEFAULT_SENSITIVITY = 1.5f;
+
+    public interface Listener {
+        void onWakeWord(double distance);
+
+        /**
+         * A gated utterance heard during enrollment, a candidate take.
+         */
+        void onEnrollmentUtterance(short[] pcm, FeatureMatrix frames);
+    }
+
+    private final int sampleRate;
+    private final int blockSize;
+    private final Listener listener;
+    private final TakeStore takes;
+    private final DtwMatcher matcher = new DtwMatcher(AdvancedVoiceAnalyzer.FEATURE_DIMENSION, DTW_BAND);
+
+    private float cpuBudget = DEFAULT_CPU_BUDGET;
+    private volatile boolean enrolling;
+
+    // Capture-thread state
+    private final short[] block;
+    private int blockFill;
+    private final short[][] preRoll;
+    private int preRollNext;
+    private int preRollCount;
+    private float noiseFloor;
+    private int loudBlocks;
+    private boolean gateOpen;
+    private boolean waitForQuiet;
+    private int utteranceBlocks;
+    private int quietBlocks;
+    private short[] pcm;
+    private int pcmLength;
+    private final FeatureMatrix frames = new FeatureMatrix(AdvancedVoiceAnalyzer.FEATURE_DIMENSION);
+    private final VoiceFeatureStream featureStream;
+    private double busySeconds;
+    private double audioSeconds;
+
+    public WakeWordDetector(Context context, int sampleRate, Listener listener) {
+        this.sampleRate = sampleRate;
+        this.blockSize = sampleRate * BLOCK_MS / 1000;
+        this.listener = listener;
+        this.takes = new TakeStore(new File(context.getFilesDir(), DIRECTORY), "",
+                MAX_TAKES, MIN_TAKES, DTW_BAND, DEFAULT_SENSITIVITY);
+        this.block = new short[blockSize];
+        this.preRoll = new short[PRE_ROLL_BLOCKS][blockSize];
+        this.pcm = new short[blockSize * (PRE_ROLL_BLOCKS + MAX_UTTERANCE_BLOCKS)];
+        this.featureStream = new VoiceFeatureStream(sampleRate, new VoiceFeatureStream.FeatureFrameListener() {
+            @Override
+            public void onFeatureFrame(float[] features) {
+                frames.addRow(features);
+            }
+
+            @Override
+            public void onStreamEnd() {
+            }
+        });
+    }
+
+    /**
+     * Largest share of processed audio time the detector may spend computing.
+     */
+    public void setCpuBudget(float fraction) {
+        this.cpuBudget = fraction;
+    }
+
+    /**
+     * Acceptance distance as a multiple of the takes' mean distance to each other.
+     */
+    public void setSensitivity(float factor) {
+        takes.setAcceptFactor(factor);
+    }
+
+    /**
+     * While enrolling, utterances go to onEnrollmentUtterance and nothing is matched.
+     */
+    public void setEnrolling(boolean enrolling) {
+        this.enrolling = enrolling;
+    }
+
+    public boolean isEnrolling() {
+        return enrolling;
+    }
+
+    public boolean isGateOpen() {
+        return gateOpen;
+    }
+
+    public boolean hasEnoughTakes() {
+        return takes.hasEnoughTakes();
+    }
+
+    /**
+     * Forgets the audio context after a gap in the capture, e.g. a duty-cycle pause.
+     */
+    public void reset() {
+        if (gateOpen) {
+            closeGate(false);
+        }
+        blockFill = 0;
+        preRollCount = 0;
+        loudBlocks = 0;
+        waitForQuiet = false;
+    }
+
+    public void process(short[] samples, int length) {
+        long started = System.nanoTime();
+
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(blockSize - blockFill, length - offset);
+            System.arraycopy(samples, offset, block, blockFill, count);
+            blockFill += count;
+            offset += count;
+            if (blockFill == blockSize) {
+                processBlock();
+                blockFill = 0;
+            }
+        }
+
+        double decay = Math.exp(-(double) length / sampleRate / BUDGET_WINDOW_SECONDS);
+        busySeconds = busySeconds * decay + (System.nanoTime() - started) / 1e9;
+        audioSeconds = audioSeconds * decay + (double) length / sampleRate;
+    }
+
+    private boolean overBudget() {
+        return audioSeconds > 0.0 && busySeconds > cpuBudget * audioSeconds;
+    }
+
+    private void processBlock() {
+        float energy = 0f;
+        for (int i = 0; i < blockSize; i++) {
+            energy += (float) block[i] * block[i];
+        }
+        energy /= blockSize;
+        boolean loud = energy > noiseFloor * GATE_RATIO;
+
+        if (gateOpen) {
+            append(block);
+            utteranceBlocks++;
+            quietBlocks = loud ? 0 : quietBlocks + 1;
+
+            if (quietBlocks >= GATE_CLOSE_BLOCKS) {
+                closeGate(utteranceBlocks - quietBlocks >= MIN_SPEECH_BLOCKS);
+            } else if (utteranceBlocks >= MAX_UTTERANCE_BLOCKS) {
+                // Too long for the phrase; ignore this sound until it stops
+                closeGate(false);
+                waitForQuiet = true;
+            }
+            return;
+        }
+
+        System.arraycopy(block, 0, preRoll[preRollNext], 0, blockSize);
+        preRollNext = (preRollNext + 1) % PRE_ROLL_BLOCKS;
+        preRollCount = Math.min(preRollCount + 1, PRE_ROLL_BLOCKS);
+
+        if (noiseFloor == 0f) {
+            noiseFloor = Math.max(MIN_NOISE_FLOOR, energy);
+        }
+        if (loud) {
+            loudBlocks++;
+            noiseFloor += FLOOR_RISE * (energy - noiseFloor);
+        } else {
+            loudBlocks = 0;
+            waitForQuiet = false;
+            noiseFloor = Math.max(MIN_NOISE_FLOOR, noiseFloor + FLOOR_FALL * (energy - noiseFloor));
+        }
+
+        if (loudBlocks >= GATE_OPEN_BLOCKS && !waitForQuiet && !overBudget()) {
+            openGate();
+        }
+    }
+
+    private void openGate() {
+        gateOpen = true;
+        utteranceBlocks = 0;
+        quietBlocks = 0;
+        pcmLength = 0;
+        frames.clear();
+
+        // Replay the pre-roll so the stream sees the start of the phrase
+        int first = (preRollNext - preRollCount + PRE_ROLL_BLOCKS) % PRE_ROLL_BLOCKS;
+        for (int i = 0; i < preRollCount; i++) {
+            append(preRoll[(first + i) % PRE_ROLL_BLOCKS]);
+        }
+        preRollCount = 0;
+    }
+
+    private void append(short[] samples) {
+        System.arraycopy(samples, 0, pcm, pcmLength, blockSize);
+        pcmLength += blockSize;
+        featureStream.onSamples(samples, blockSize);
+    }
+
+    private void closeGate(boolean evaluate) {
+        gateOpen = false;
+        loudBlocks = 0;
+        featureStream.onEnd();
+
+        if (evaluate && !frames.isEmpty()) {
+            match();
+        }
+    }
+
+    private void match() {
+        if (enrolling) {
+            listener.onEnrollmentUtterance(Arrays.copyOf(pcm, pcmLength), copy(frames));
+            return;
+        }
+        List<DtwMatcher.Reference> snapshot = takes.getTakes();
+        double acceptDistance = takes.getAcceptDistance();
+        if (snapshot.size() < MIN_TAKES) {
+            return;
+        }
+
+        DtwMatcher.Match match = matcher.bestMatch(frames, snapshot, acceptDistance);
+        if (match != null) {
+            Log.d(TAG, "Wake phrase matched at distance " + match.distance + " (limit " + acceptDistance + ")");
+            listener.onWakeWord(match.distance);
+        }
+    }
+
+    private static FeatureMatrix copy(FeatureMatrix source) {
+        FeatureMatrix copy = new FeatureMatrix(source.getDimension(), source.getRowCount());
+        for (int r = 0; r < source.getRowCount(); r++) {
+            copy.addRow(source.getData(), source.rowOffset(r));
+        }
+        return copy;
+    }
+
+    // === Takes ===
+
+    /**
+     * Adds a confirmed utterance of the phrase as a take and stores it; the
+     * oldest take is dropped beyond MAX_TAKES.
+     */
+    public void addTemplate(FeatureMatrix take) {
+        takes.add(take);
+    }
+
+    /**
+     * Reads the stored takes; call once before processing audio.
+     */
+    public void loadTemplates() {
+        takes.load();
+        Log.d(TAG, "Loaded " + takes.getTakes().size() + " wake word takes");
+    }
+
+    /**
+     * Forgets every take, in memory and stored, before a new enrollment.
+     */
+    public void clearTemplates() {
+        takes.clear();
+    }
+
+    /**
+     * Whether enough takes are stored for the phrase to be detected.
+     */
+    public static boolean hasStoredTakes(Context context) {
+        return TakeStore.countStored(new File(context.getFilesDir(), DIRECTORY), "") >= MIN_TAKES;
+    }
+}
@@ -0,0 +1,589 @@
+package com.bank.bayan;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.media.ToneGenerator;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.ServiceCompat;
+import androidx.core.content.ContextCompat;
+
+import com.bank.bayan.audio.AudioProcessingScheduler;
+import com.bank.bayan.audio.RecognizerAudioFeed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Foreground service that listens for "مساعد البنك" with a
+ * {@link WakeWordDetector} and opens a full speech recognition session only
+ * after the phrase is heard. The recognized command is broadcast as
+ * {@link #ACTION_VOICE_COMMAND}, and wake-word listening then resumes.
+ *
+ * <p>While the app runs its own recognition it binds to the service and
+ * {@link Control#pause pauses} it, opening its capture only once the
+ * service has released the microphone.
+ *
+ * <p>The microphone is duty-cycled. After each listen window in which the
+ * gate stayed shut, the capture stops for the sleep period; not while
+ * enrolling. The CPU budget, listen window and sleep period may be set in the
+ * start intent, and a sleep period of 0 keeps the microphone open.
+ *
+ * <p>The takes of the phrase are recorded only when the user asks for it
+ * through {@link #enroll}: for {@link #ENROLL_WINDOW_MS} each gated
+ * utterance is replayed to the recognizer, and one transcribed as exactly
+ * the phrase becomes a take, with a beep. Enrollment ends after
+ * {@link #ENROLL_TAKES} takes. The replay needs Android 13+. Without stored
+ * takes the service does not run, so nothing is ever streamed to the
+ * recognizer before the phrase is heard.
+ */
+public class WakeWordService extends Service {
+
+    private static final String TAG = "WakeWordService";
+
+    public static final String ACTION_VOICE_COMMAND = "com.bank.bayan.action.VOICE_COMMAND";
+    public static final String EXTRA_COMMAND = "command";
+    public static final String EXTRA_CPU_BUDGET = "cpu_budget";
+    public static final String EXTRA_LISTEN_MS = "listen_ms";
+    public static final String EXTRA_SLEEP_MS = "sleep_ms";
+
+    private static final String ACTION_PAUSE = "com.bank.bayan.action.PAUSE_WAKE_WORD";
+    private static final String ACTION_RESUME = "com.bank.bayan.action.RESUME_WAKE_WORD";
+    private static final String ACTION_ENROLL = "com.bank.bayan.action.ENROLL_WAKE_WORD";
+
+    private static final String CHANNEL_ID = "wake_word";
+    private static final int NOTIFICATION_ID = 2001;
+    private static final int SAMPLE_RATE = 16000;
+    // Reads this long keep the capture thread asleep between blocks of gate work
+    private static final int READ_MS = 100;
+    // The microphone is off about a quarter of the quiet time; a phrase begun
+    // in a sleep is cut short and has to be said again
+    private static final long DEFAULT_LISTEN_MS = 2500;
+    private static final long DEFAULT_SLEEP_MS = 750;
+    private static final long ENROLL_WINDOW_MS = 30000;
+    private static final int ENROLL_TAKES = 3;
+    private static final long CAPTURE_JOIN_MS = 500;
+
+    private static volatile boolean isRunning;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ToneGenerator toneGenerator;
+    private WakeWordDetector detector;
+    private SpeechRecognizer speechRecognizer;
+    private Thread captureThread;
+    private volatile boolean capturing;
+    private volatile boolean wakeWordHeard;
+    private volatile long listenMs = DEFAULT_LISTEN_MS;
+    private volatile long sleepMs = DEFAULT_SLEEP_MS;
+
+    // Main-thread state
+    private boolean paused;
+    private boolean recognizing;
+    // Capture threads that have not yet released their AudioRecord
+    private int liveCaptures;
+    private final List<Runnable> releaseCallbacks = new ArrayList<>();
+    private boolean enrolling;
+    private int enrolledTakes;
+    // Frames of the utterance being replayed for enrollment, null during a command session
+    private FeatureMatrix enrollmentFrames;
+
+    private final Runnable enrollmentTimeout = this::finishEnrollment;
+
+    /**
+     * Starts listening for the phrase, if the user has enrolled it.
+     */
+    public static void start(Context context) {
+        if (!WakeWordDetector.hasStoredTakes(context)) {
+            return;
+        }
+        Intent intent = new Intent(context, WakeWordService.class);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    /**
+     * Starts recording new takes of the phrase; the user should say it
+     * {@link #ENROLL_TAKES} times. Call only on the user's request.
+     *
+     * @return false if this device cannot transcribe the takes
+     */
+    public static boolean enroll(Context context) {
+        if (!isEnrollmentSupported()) {
+            return false;
+        }
+        Intent intent = new Intent(context, WakeWordService.class).setAction(ACTION_ENROLL);
+        ContextCompat.startForegroundService(context, intent);
+        return true;
+    }
+
+    public static boolean isEnrollmentSupported() {
+        return RecognizerAudioFeed.isSupported();
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, WakeWordService.class));
+    }
+
+    /**
+     * Handed to clients bound with {@link Context#bindService}.
+     */
+    public class Control extends Binder {
+        /**
+         * Releases the microphone while the app runs its own recognition;
+         * onReleased runs on the main thread once it is free.
+         */
+        public void pause(Runnable onReleased) {
+            pauseCapture(onReleased);
+        }
+
+        public void resume() {
+            resumeCapture();
+        }
+    }
+
+    private final Control control = new Control();
+
+    /**
+     * Releases the microphone while the app runs its own recognition, without
+     * waiting for it; see {@link Control#pause} to wait.
+     */
+    public static void pause(Context context) {
+        sendAction(context, ACTION_PAUSE);
+    }
+
+    public static void resume(Context context) {
+        sendAction(context, ACTION_RESUME);
+    }
+
+    // Only reaches an already running service; pausing must not start one
+    private static void sendAction(Context context, String action) {
+        if (isRunning) {
+            context.startService(new Intent(context, WakeWordService.class).setAction(action));
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        isRunning = true;
+        detector = new WakeWordDetector(this, SAMPLE_RATE, new WakeWordDetector.Listener() {
+            @Override
+            public void onWakeWord(double distance) {
+                // Leave the capture loop; the recognizer starts once the microphone is released
+                wakeWordHeard = true;
+                capturing = false;
+            }
+
+            @Override
+            public void onEnrollmentUtterance(short[] pcm, FeatureMatrix frames) {
+                mainHandler.post(() -> verifyUtterance(pcm, frames));
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+
+        if (ACTION_PAUSE.equals(action)) {
+            pauseCapture(null);
+        } else if (ACTION_RESUME.equals(action)) {
+            resumeCapture();
+        } else if (ACTION_ENROLL.equals(action)) {
+            if (!startInForeground()) {
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            startEnrollment();
+        } else {
+            if (!enrolling && !WakeWordDetector.hasStoredTakes(this)) {
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            if (!startInForeground()) {
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            if (intent != null) {
+                detector.setCpuBudget(intent.getFloatExtra(EXTRA_CPU_BUDGET, WakeWordDetector.DEFAULT_CPU_BUDGET));
+                listenMs = intent.getLongExtra(EXTRA_LISTEN_MS, DEFAULT_LISTEN_MS);
+                sleepMs = intent.getLongExtra(EXTRA_SLEEP_MS, DEFAULT_SLEEP_MS);
+            }
+            startCapture();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return control;
+    }
+
+    @Override
+    public void onDestroy() {
+        isRunning = false;
+        mainHandler.removeCallbacks(enrollmentTimeout);
+        stopCapture();
+        if (speechRecognizer != null) {
+            speechRecognizer.destroy();
+            speechRecognizer = null;
+        }
+        if (toneGenerator != null) {
+            toneGenerator.release();
+            toneGenerator = null;
+        }
+        super.onDestroy();
+    }
+
+    private boolean startInForeground() {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "المساعد الصوتي",
+                    NotificationManager.IMPORTANCE_LOW));
+        }
+
+        PendingIntent openApp = PendingIntent.getActivity(this, 0, new Intent(this, HomeActivity.class),
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.icon_bayan)
+                .setContentTitle("بيان")
+                .setContentText("قل \"" + WakeWordDetector.WAKE_PHRASE + "\" لبدء الأوامر الصوتية")
+                .setContentIntent(openApp)
+                .setOngoing(true)
+                .build();
+
+        try {
+            ServiceCompat.startForeground(this, NOTIFICATION_ID, notification,
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE);
+            return true;
+        } catch (RuntimeException e) {
+            // Microphone services can only start while the app is in the foreground
+            Log.w(TAG, "Cannot start wake word listening", e);
+            return false;
+        }
+    }
+
+    // === Capture ===
+
+    private void pauseCapture(Runnable onReleased) {
+        paused = true;
+        if (recognizing) {
+            speechRecognizer.cancel();
+            recognizing = false;
+            enrollmentFrames = null;
+        }
+
+        Thread thread = captureThread;
+        captureThread = null;
+        capturing = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        if (onReleased == null) {
+            return;
+        }
+        if (liveCaptures == 0) {
+            mainHandler.post(onReleased);
+        } else {
+            releaseCallbacks.add(onReleased);
+        }
+    }
+
+    private void resumeCapture() {
+        paused = false;
+        startCapture();
+    }
+
+    private void startCapture() {
+        if (paused || recognizing || captureThread != null) {
+            return;
+        }
+        capturing = true;
+        wakeWordHeard = false;
+        liveCaptures++;
+        captureThread = new Thread(this::captureLoop, "wake-word");
+        captureThread.start();
+    }
+
+    private void stopCapture() {
+        Thread thread = captureThread;
+        captureThread = null;
+        capturing = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(CAPTURE_JOIN_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void captureLoop() {
+        try {
+            capture();
+        } finally {
+            Thread self = Thread.currentThread();
+            boolean heard = wakeWordHeard;
+            mainHandler.post(() -> {
+                if (captureThread == self) {
+                    captureThread = null;
+                }
+                if (--liveCaptures == 0 && !releaseCallbacks.isEmpty()) {
+                    List<Runnable> callbacks = new ArrayList<>(releaseCallbacks);
+                    releaseCallbacks.clear();
+                    for (Runnable callback : callbacks) {
+                        callback.run();
+                    }
+                }
+                if (heard) {
+                    onWakeWord();
+                }
+            });
+        }
+    }
+
+    private void capture() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        if (!detector.hasEnoughTakes()) {
+            detector.loadTemplates();
+        }
+
+        short[] buffer = new short[SAMPLE_RATE * READ_MS / 1000];
+        AudioRecord record;
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, SAMPLE_RATE,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                            AudioFormat.ENCODING_PCM_16BIT), buffer.length * 2 * 2));
+        } catch (SecurityException e) {
+            Log.e(TAG, "RECORD_AUDIO permission not granted");
+            return;
+        }
+
+        try {
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                Log.e(TAG, "AudioRecord initialization failed");
+                return;
+            }
+
+            detector.reset();
+            record.startRecording();
+            long windowStart = SystemClock.elapsedRealtime();
+
+            while (capturing) {
+                int read = record.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    Log.e(TAG, "Error reading audio data: " + read);
+                    break;
+                }
+                detector.process(buffer, read);
+
+                // Sleep only between sounds, never in the middle of one
+                if (sleepMs > 0 && listenMs > 0 && !detector.isGateOpen() && !detector.isEnrolling()
+                        && SystemClock.elapsedRealtime() - windowStart >= listenMs) {
+                    record.stop();
+                    try {
+                        Thread.sleep(sleepMs);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    detector.reset();
+                    record.startRecording();
+                    windowStart = SystemClock.elapsedRealtime();
+                }
+            }
+        } finally {
+            record.release();
+        }
+    }
+
+    // === Enrollment ===
+
+    private void startEnrollment() {
+        stopCapture();
+        if (recognizing) {
+            speechRecognizer.cancel();
+            recognizing = false;
+            enrollmentFrames = null;
+        }
+
+        enrolling = true;
+        enrolledTakes = 0;
+        paused = false;
+        detector.setEnrolling(true);
+        // The capture thread loads the stored takes as it starts, so clear them first
+        detector.clearTemplates();
+        mainHandler.removeCallbacks(enrollmentTimeout);
+        mainHandler.postDelayed(enrollmentTimeout, ENROLL_WINDOW_MS);
+        startCapture();
+    }
+
+    private void finishEnrollment() {
+        mainHandler.removeCallbacks(enrollmentTimeout);
+        enrolling = false;
+        detector.setEnrolling(false);
+
+        boolean enrolled = enrolledTakes >= WakeWordDetector.MIN_TAKES;
+        Log.d(TAG, "Enrollment ended with " + enrolledTakes + " takes");
+        beep(enrolled ? ToneGenerator.TONE_PROP_ACK : ToneGenerator.TONE_PROP_NACK);
+        if (!enrolled) {
+            detector.clearTemplates();
+            stopSelf();
+        }
+    }
+
+    private static boolean isWakePhrase(String text) {
+        return text != null && text.replaceAll("\\p{Mn}", "").replaceAll("[\\p{P}\\s]+", " ").trim()
+                .equals(WakeWordDetector.WAKE_PHRASE);
+    }
+
+    // === Recognition ===
+
+    private void onWakeWord() {
+        if (paused || !isRunning) {
+            return;
+        }
+        // Tell the user the assistant is listening before the command starts
+        beep(ToneGenerator.TONE_PROP_BEEP);
+
+        Intent intent = recognizerIntent();
+        enrollmentFrames = null;
+        recognizing = true;
+        recognizer().startListening(intent);
+    }
+
+    private void verifyUtterance(short[] pcm, FeatureMatrix frames) {
+        if (!enrolling || recognizing || paused) {
+            return;
+        }
+
+        Intent intent = recognizerIntent();
+        RecognizerAudioFeed feed = RecognizerAudioFeed.create(intent, SAMPLE_RATE);
+        if (feed == null) {
+            return;
+        }
+        enrollmentFrames = frames;
+        recognizing = true;
+        recognizer().startListening(intent);
+
+        // The pipe holds less than an utterance, so write it off the main thread
+        AudioProcessingScheduler.getInstance().submit(null, AudioProcessingScheduler.Priority.BACKGROUND, () -> {
+            feed.onSamples(pcm, pcm.length);
+            feed.onEnd();
+            return null;
+        });
+    }
+
+    private void onRecognized(String text) {
+        FeatureMatrix frames = enrollmentFrames;
+        enrollmentFrames = null;
+        recognizing = false;
+
+        if (frames != null) {
+            // A sentence that merely contains the phrase would make a poor take
+            if (enrolling && isWakePhrase(text)) {
+                Log.d(TAG, "Learned a take of the wake phrase");
+                AudioProcessingScheduler.getInstance().submit(null, AudioProcessingScheduler.Priority.BACKGROUND, () -> {
+                    detector.addTemplate(frames);
+                    return null;
+                });
+                if (++enrolledTakes >= ENROLL_TAKES) {
+                    finishEnrollment();
+                } else {
+                    beep(ToneGenerator.TONE_PROP_BEEP);
+                }
+            }
+        } else if (text != null) {
+            sendBroadcast(new Intent(ACTION_VOICE_COMMAND)
+                    .setPackage(getPackageName())
+                    .putExtra(EXTRA_COMMAND, text));
+        }
+
+        startCapture();
+    }
+
+    private void beep(int tone) {
+        if (toneGenerator == null) {
+            toneGenerator = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 80);
+        }
+        toneGenerator.startTone(tone, 150);
+    }
+
+    private Intent recognizerIntent() {
+        Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, "ar-SA");
+        intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, getPackageName());
+        return intent;
+    }
+
+    private SpeechRecognizer recognizer() {
+        if (speechRecognizer == null) {
+            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(this);
+            speechRecognizer.setRecognitionListener(new RecognitionListener() {
+                @Override
+                public void onReadyForSpeech(Bundle params) {
+                }
+
+                @Override
+                public void onBeginningOfSpeech() {
+                }
+
+                @Override
+                public void onRmsChanged(float rmsdB) {
+                }
+
+                @Override
+                public void onBufferReceived(byte[] buffer) {
+                }
+
+                @Override
+                public void onEndOfSpeech() {
+                }
+
+                @Override
+                public void onError(int error) {
+                    Log.d(TAG, "Recognition ended with error " + error);
+                    onRecognized(null);
+                }
+
+                @Override
+                public void onResults(Bundle results) {
+                    ArrayList<String> matches = results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+                    onRecognized(matches != null && !matches.isEmpty() ? matches.get(0) : null);
+                }
+
+                @Override
+                public void onPartialResults(Bundle partialResults) {
+                }
+
+                @Override
+                public void onEvent(int eventType, Bundle params) {
+                }
+            });
+        }
+        return speechRecognizer;
+    }
+}
@@ -3,49 +3,86 @@ package com.bank.bayan.audio;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 public class AudioFeatureExtractor {
 
     private static final String TAG = "AudioFeatureExtractor";
-    private static final int SAMPLE_RATE = 16000;
-    private static final int FRAME_SIZE = 512;
-    private static final int HOP_SIZE = 256;
+    static final int SAMPLE_RATE = 16000;
+    static final int FRAME_SIZE = 512;
+    static final int HOP_SIZE = 256;
+    static final int SPEECH_RATE_STRIDE = 160;
+    static final double MIN_PITCH_HZ = 50.0;
+    static final double MAX_PITCH_HZ = 800.0;
+    static final int MFCC_COUNT = 12;
+    private static final double MFCC_MEL_SPACING = 300.0;
+    private static final double MFCC_MEL_WIDTH = 100.0;
+
+    /**
+     * Extracts features on the audio-processing scheduler and delivers them on the
+     * main thread. A newer request with the same key cancels this one.
+     */
+    public static Future<VoiceFeatures> extractFeaturesAsync(File audioFile, String key,
+                                                             AudioProcessingScheduler.Callback<VoiceFeatures> callback) {
+        return AudioProcessingScheduler.getInstance().submit(key, AudioProcessingScheduler.Priority.INTERACTIVE,
+                () -> extractFeatures(audioFile), callback);
+    }
 
     public static VoiceFeatures extractFeatures(File audioFile) {
+        ShortBuffer audioData;
+        try {
+            audioData = WavFile.read(audioFile).getSamples();
+        } catch (IOException e) {
+            Log.e(TAG, "خطأ في قراءة ملف الصوت: " + e.getMessage(), e);
+            return null;
+        }
+
+        return extractFeatures(audioData);
+    }
+
+    /**
+     * Extracts features straight from a sample buffer, e.g. a memory-mapped
+     * enrollment recording, without copying the samples.
+     */
+    public static VoiceFeatures extractFeatures(ShortBuffer audioData) {
         try {
-            short[] audioData = readWavFile(audioFile);
-            if (audioData == null || audioData.length < SAMPLE_RATE) {
+            if (audioData == null || audioData.limit() < SAMPLE_RATE) {
                 Log.e(TAG, "ملف الصوت قصير جداً أو تالف");
                 return null;
             }
 
             VoiceFeatures features = new VoiceFeatures();
 
-            features.duration = (double) audioData.length / SAMPLE_RATE;
+            features.duration = (double) audioData.limit() / SAMPLE_RATE;
 
             features.averageAmplitude = calculateAverageAmplitude(audioData);
 
             features.averagePitch = calculateAveragePitch(audioData);
+            AudioProcessingScheduler.checkCancelled();
+
+            features.speechRate = calculateSpeechRate(audioData, audioData.limit(), SPEECH_RATE_STRIDE,
+                    features.averageAmplitude, features.duration);
 
-            features.speechRate = calculateSpeechRate(audioData);
+            ShortTimeSpectrum spectrum = ShortTimeSpectrum.compute(audioData, FRAME_SIZE, HOP_SIZE);
+            AudioProcessingScheduler.checkCancelled();
 
-            features.spectralCentroid = calculateSpectralCentroid(audioData);
-            features.spectralRolloff = calculateSpectralRolloff(audioData);
+            features.spectralCentroid = calculateSpectralCentroid(spectrum);
+            features.spectralRolloff = calculateSpectralRolloff(spectrum);
 
-            features.mfccFeatures = calculateMFCC(audioData);
+            features.mfccFeatures = calculateMFCC(spectrum);
 
-            features.voiceFingerprint = generateVoiceFingerprint(features);
+            features.voiceFingerprint = VoiceFingerprint.of(features);
 
             Log.d(TAG, "تم استخراج الخصائص بنجاح: " + features.toString());
             return features;
 
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             Log.e(TAG, "خطأ في استخراج الخصائص: " + e.getMessage(), e);
             return null;
@@ -93,7 +130,7 @@ public class AudioFeatureExtractor {
             }
 
             if (features1.voiceFingerprint != null && features2.voiceFingerprint != null) {
-                double fingerprintSimilarity = calculateFingerprintSimilarity(
+                double fingerprintSimilarity = VoiceFingerprint.similarity(
                         features1.voiceFingerprint, features2.voiceFingerprint);
                 totalSimilarity += fingerprintSimilarity * 0.10;
                 featureCount++;
@@ -111,187 +148,167 @@ public class AudioFeatureExtractor {
     }
 
 
-    private static short[] readWavFile(File file) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-
-        byte[] header = new byte[44];
-        fis.read(header);
-
-        byte[] audioBytes = new byte[(int) (file.length() - 44)];
-        fis.read(audioBytes);
-        fis.close();
-
-        short[] audioData = new short[audioBytes.length / 2];
-        ByteBuffer.wrap(audioBytes).order(ByteOrder.LITTLE_ENDIAN)
-                .asShortBuffer().get(audioData);
-
-        return audioData;
-    }
-
-    private static double calculateAverageAmplitude(short[] audioData) {
+    private static double calculateAverageAmplitude(ShortBuffer audioData) {
+        int length = audioData.limit();
         double sum = 0.0;
-        for (short sample : audioData) {
-            sum += Math.abs(sample);
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs(audioData.get(i));
         }
-        return sum / audioData.length;
+        return sum / length;
     }
 
-    private static double calculateAveragePitch(short[] audioData) {
+    private static double calculateAveragePitch(ShortBuffer audioData) {
         try {
-            List<Double> pitchValues = new ArrayList<>();
-
-            for (int i = 0; i < audioData.length - FRAME_SIZE; i += HOP_SIZE) {
-                short[] frame = Arrays.copyOfRange(audioData, i, i + FRAME_SIZE);
-                double pitch = estimatePitch(frame);
-                if (pitch > 50 && pitch < 800) {
-                    pitchValues.add(pitch);
+            PitchTracker tracker = new PitchTracker(SAMPLE_RATE, FRAME_SIZE, MIN_PITCH_HZ, MAX_PITCH_HZ);
+            double pitchSum = 0.0;
+            int voicedFrames = 0;
+
+            for (int i = 0; i < audioData.limit() - FRAME_SIZE; i += HOP_SIZE) {
+                AudioProcessingScheduler.checkCancelled();
+                double pitch = tracker.process(audioData, i);
+                if (pitch > MIN_PITCH_HZ && pitch < MAX_PITCH_HZ) {
+                    pitchSum += pitch;
+                    voicedFrames++;
                 }
             }
 
-            if (pitchValues.isEmpty()) {
-                return 0.0;
-            }
-
-            return pitchValues.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+            return voicedFrames > 0 ? pitchSum / voicedFrames : 0.0;
 
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
             Log.e(TAG, "خطأ في حساب التردد: " + e.getMessage());
             return 0.0;
         }
     }
 
-    private static double estimatePitch(short[] frame) {
-        double[] autocorr = new double[frame.length];
-
-        for (int lag = 0; lag < frame.length; lag++) {
-            double sum = 0.0;
-            for (int i = 0; i < frame.length - lag; i++) {
-                sum += frame[i] * frame[i + lag];
-            }
-            autocorr[lag] = sum;
-        }
-
-        double maxCorr = 0.0;
-        int bestLag = 0;
-
-        for (int lag = 20; lag < autocorr.length / 2; lag++) {
-            if (autocorr[lag] > maxCorr) {
-                maxCorr = autocorr[lag];
-                bestLag = lag;
-            }
-        }
-
-        return bestLag > 0 ? (double) SAMPLE_RATE / bestLag : 0.0;
-    }
-
-    private static double calculateSpeechRate(short[] audioData) {
-        int threshold = (int) (calculateAverageAmplitude(audioData) * 0.1);
+    /**
+     * Counts silence-to-sound onsets over every {@code stride}-th sample of samples[0, count).
+     */
+    static double calculateSpeechRate(ShortBuffer samples, int count, int stride,
+                                      double averageAmplitude, double duration) {
+        int threshold = (int) (averageAmplitude * 0.1);
         int transitions = 0;
         boolean wasSilent = true;
 
-        for (int i = 0; i < audioData.length; i += 160) {
-            boolean isSilent = Math.abs(audioData[i]) < threshold;
+        for (int i = 0; i < count; i += stride) {
+            boolean isSilent = Math.abs(samples.get(i)) < threshold;
             if (wasSilent && !isSilent) {
                 transitions++;
             }
             wasSilent = isSilent;
         }
 
-        double duration = (double) audioData.length / SAMPLE_RATE;
-        return transitions / duration;
+        return duration > 0 ? transitions / duration : 0.0;
     }
 
-    private static double calculateSpectralCentroid(short[] audioData) {
-        double[] magnitude = calculateMagnitudeSpectrum(audioData);
+    private static double calculateSpectralCentroid(ShortTimeSpectrum spectrum) {
+        float[] power = spectrum.getPower();
+        double binHz = spectrum.binFrequency(1, SAMPLE_RATE);
 
-        double weightedSum = 0.0;
-        double magnitudeSum = 0.0;
+        double centroidSum = 0.0;
+        int frames = 0;
 
-        for (int i = 0; i < magnitude.length; i++) {
-            double frequency = (double) i * SAMPLE_RATE / (2 * magnitude.length);
-            weightedSum += frequency * magnitude[i];
-            magnitudeSum += magnitude[i];
+        for (int frame = 0; frame < spectrum.getFrameCount(); frame++) {
+            double centroid = frameSpectralCentroid(power, spectrum.rowOffset(frame), spectrum.getBinCount(), binHz);
+            if (centroid >= 0) {
+                centroidSum += centroid;
+                frames++;
+            }
         }
 
-        return magnitudeSum > 0 ? weightedSum / magnitudeSum : 0.0;
+        return frames > 0 ? centroidSum / frames : 0.0;
     }
 
-    private static double calculateSpectralRolloff(short[] audioData) {
-        double[] magnitude = calculateMagnitudeSpectrum(audioData);
+    private static double calculateSpectralRolloff(ShortTimeSpectrum spectrum) {
+        float[] power = spectrum.getPower();
+        double binHz = spectrum.binFrequency(1, SAMPLE_RATE);
 
-        double totalEnergy = 0.0;
-        for (double mag : magnitude) {
-            totalEnergy += mag * mag;
-        }
+        double rolloffSum = 0.0;
+        int frames = 0;
 
-        double threshold = 0.85 * totalEnergy;
-        double cumulativeEnergy = 0.0;
-
-        for (int i = 0; i < magnitude.length; i++) {
-            cumulativeEnergy += magnitude[i] * magnitude[i];
-            if (cumulativeEnergy >= threshold) {
-                return (double) i * SAMPLE_RATE / (2 * magnitude.length);
+        for (int frame = 0; frame < spectrum.getFrameCount(); frame++) {
+            double rolloff = frameSpectralRolloff(power, spectrum.rowOffset(frame), spectrum.getBinCount(), binHz);
+            if (rolloff >= 0) {
+                rolloffSum += rolloff;
+                frames++;
             }
         }
 
-        return 0.0;
+        return frames > 0 ? rolloffSum / frames : 0.0;
     }
 
-    private static double[] calculateMagnitudeSpectrum(short[] audioData) {
-        double[] windowed = new double[audioData.length];
-        for (int i = 0; i < audioData.length; i++) {
-            double w = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (audioData.length - 1));
-            windowed[i] = audioData[i] * w;
+    private static double[] calculateMFCC(ShortTimeSpectrum spectrum) {
+        float[] power = spectrum.getPower();
+        int bins = spectrum.getBinCount();
+
+        // Average magnitude spectrum over all frames
+        double[] magnitude = new double[bins];
+        for (int frame = 0; frame < spectrum.getFrameCount(); frame++) {
+            int row = spectrum.rowOffset(frame);
+            for (int k = 0; k < bins; k++) {
+                magnitude[k] += Math.sqrt(power[row + k]);
+            }
+        }
+        if (spectrum.getFrameCount() > 0) {
+            for (int k = 0; k < bins; k++) {
+                magnitude[k] /= spectrum.getFrameCount();
+            }
         }
 
-        int n = windowed.length / 2;
-        double[] magnitude = new double[n];
+        return calculateMFCC(magnitude, spectrum.binFrequency(1, SAMPLE_RATE));
+    }
 
-        for (int k = 0; k < n; k++) {
-            double real = 0.0, imag = 0.0;
-            for (int t = 0; t < windowed.length; t++) {
-                double angle = -2 * Math.PI * k * t / windowed.length;
-                real += windowed[t] * Math.cos(angle);
-                imag += windowed[t] * Math.sin(angle);
-            }
-            magnitude[k] = Math.sqrt(real * real + imag * imag);
+    /**
+     * Magnitude-weighted mean frequency of one power-spectrum row, or -1 for a silent frame.
+     */
+    static double frameSpectralCentroid(float[] power, int row, int bins, double binHz) {
+        double weightedSum = 0.0;
+        double magnitudeSum = 0.0;
+
+        for (int k = 0; k < bins; k++) {
+            double magnitude = Math.sqrt(power[row + k]);
+            weightedSum += k * binHz * magnitude;
+            magnitudeSum += magnitude;
         }
 
-        return magnitude;
+        return magnitudeSum > 0 ? weightedSum / magnitudeSum : -1.0;
     }
 
-    private static double[] calculateMFCC(short[] audioData) {
-        double[] mfcc = new double[12];
-        double[] magnitude = calculateMagnitudeSpectrum(audioData);
+    /**
+     * Frequency below which 85% of one power-spectrum row's energy lies, or -1 for a silent frame.
+     */
+    static double frameSpectralRolloff(float[] power, int row, int bins, double binHz) {
+        double totalEnergy = 0.0;
+        for (int k = 0; k < bins; k++) {
+            totalEnergy += power[row + k];
+        }
+        if (totalEnergy <= 0) {
+            return -1.0;
+        }
 
-        for (int i = 0; i < 12; i++) {
-            double sum = 0.0;
-            for (int j = 0; j < magnitude.length; j++) {
-                double melFreq = 2595 * Math.log10(1 + j * SAMPLE_RATE / (2.0 * magnitude.length * 700));
-                double weight = Math.exp(-0.5 * Math.pow((melFreq - i * 300) / 100, 2));
-                sum += magnitude[j] * weight;
+        double threshold = 0.85 * totalEnergy;
+        double cumulativeEnergy = 0.0;
+        for (int k = 0; k < bins; k++) {
+            cumulativeEnergy += power[row + k];
+            if (cumulativeEnergy >= threshold) {
+                return k * binHz;
             }
-            mfcc[i] = Math.log(sum + 1e-10);
         }
 
-        return mfcc;
+        return (bins - 1) * binHz;
     }
 
-    private static String generateVoiceFingerprint(VoiceFeatures features) {
-        StringBuilder fingerprint = new StringBuilder();
+    static double[] calculateMFCC(double[] magnitude, double binHz) {
+        MelFilterBank bank = MelFilterBank.gaussian(binHz, magnitude.length, MFCC_COUNT, MFCC_MEL_SPACING, MFCC_MEL_WIDTH);
+        double[] mfcc = new double[MFCC_COUNT];
+        bank.apply(magnitude, mfcc);
 
-        fingerprint.append(String.format("%.0f", features.averagePitch / 10));
-        fingerprint.append(String.format("%.0f", features.averageAmplitude / 100));
-        fingerprint.append(String.format("%.1f", features.speechRate));
-        fingerprint.append(String.format("%.0f", features.spectralCentroid / 100));
-
-        if (features.mfccFeatures != null) {
-            for (int i = 0; i < Math.min(4, features.mfccFeatures.length); i++) {
-                fingerprint.append(String.format("%.1f", features.mfccFeatures[i]));
-            }
+        for (int i = 0; i < MFCC_COUNT; i++) {
+            mfcc[i] = Math.log(mfcc[i] + 1e-10);
         }
 
-        return fingerprint.toString();
+        return mfcc;
     }
 
     private static double calculateMFCCSimilarity(double[] mfcc1, double[] mfcc2) {
@@ -304,21 +321,6 @@ public class AudioFeatureExtractor {
         return Math.exp(-distance / 10.0);
     }
 
-    private static double calculateFingerprintSimilarity(String fp1, String fp2) {
-        if (fp1.length() != fp2.length()) {
-            return 0.0;
-        }
-
-        int matches = 0;
-        for (int i = 0; i < fp1.length(); i++) {
-            if (fp1.charAt(i) == fp2.charAt(i)) {
-                matches++;
-            }
-        }
-
-        return (double) matches / fp1.length();
-    }
-
     public static class VoiceFeatures {
         public double duration;
         public double averageAmplitude;
@@ -327,7 +329,7 @@ public class AudioFeatureExtractor {
         public double spectralCentroid;
         public double spectralRolloff;
         public double[] mfccFeatures;
-        public String voiceFingerprint;
+        public long[] voiceFingerprint;
 
         public String toFeatureString() {
             StringBuilder sb = new StringBuilder();
@@ -344,7 +346,7 @@ public class AudioFeatureExtractor {
                 }
             }
 
-            sb.append(voiceFingerprint != null ? voiceFingerprint : "");
+            sb.append(voiceFingerprint != null ? VoiceFingerprint.toHex(voiceFingerprint) : "");
 
             return sb.toString();
         }
@@ -373,7 +375,7 @@ public class AudioFeatureExtractor {
                 }
 
                 if (parts.length > 0) {
-                    features.voiceFingerprint = parts[parts.length - 1];
+                    features.voiceFingerprint = VoiceFingerprint.fromHex(parts[parts.length - 1]);
                 }
 
                 return features;
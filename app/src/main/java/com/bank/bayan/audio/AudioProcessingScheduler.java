@@ -0,0 +1,251 @@
+package com.bank.bayan.audio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where heavy audio work runs: a small prioritized executor off the main
+ * thread. Jobs submitted under a key replace any job still pending or running
+ * under the same key, so restarting a phrase abandons the old extraction, and
+ * the queue is bounded: when full, the least urgent newest job is dropped and
+ * its callback gets a RejectedExecutionException, so no caller waits forever.
+ *
+ * <p>Workers run at background priority. An INTERACTIVE job, which the user
+ * is waiting on, raises its thread to foreground priority while it runs, so
+ * the kernel does not starve it behind other apps' work.
+ *
+ * <p>Cancellation is cooperative. Cancelling a running job interrupts its
+ * thread, and long DSP loops call {@link #checkCancelled()} to stop early.
+ */
+public final class AudioProcessingScheduler {
+
+    private static final String TAG = "AudioProcessingScheduler";
+    private static final int MAX_PENDING = 8;
+    private static final int MAX_THREADS = 2;
+    private static final int WORKER_THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND;
+    private static final int INTERACTIVE_THREAD_PRIORITY = Process.THREAD_PRIORITY_FOREGROUND;
+
+    public enum Priority {
+        INTERACTIVE,
+        NORMAL,
+        BACKGROUND
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+        void onError(Exception error);
+    }
+
+    private static AudioProcessingScheduler instance;
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Job<?>> jobsByKey = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private AudioProcessingScheduler() {
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                runnable -> new Thread(() -> {
+                    Process.setThreadPriority(WORKER_THREAD_PRIORITY);
+                    runnable.run();
+                }, "audio-processing-" + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized AudioProcessingScheduler getInstance() {
+        if (instance == null) {
+            instance = new AudioProcessingScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Throws CancellationException if the job running on this thread was cancelled.
+     * Call it between frames or stages of long computations.
+     */
+    public static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Audio job cancelled");
+        }
+    }
+
+    public <T> Future<T> submit(String key, Priority priority, Callable<T> work) {
+        return submit(key, priority, work, null);
+    }
+
+    /**
+     * Queues work and, unless it is cancelled, delivers its outcome to callback on the main thread.
+     * Work the bounded queue has no room for, or drops for more urgent work, fails with
+     * RejectedExecutionException.
+     *
+     * @param key jobs with the same non-null key coalesce: the newest one wins
+     */
+    public <T> Future<T> submit(String key, Priority priority, Callable<T> work, Callback<T> callback) {
+        Job<T> job = new Job<>(key, priority, sequence.getAndIncrement(), work, callback);
+
+        // Capacity, coalescing and execute under one lock, so two submits can't both take the last slot
+        synchronized (this) {
+            Job<?> previous = key != null ? jobsByKey.get(key) : null;
+            if (!makeRoomFor(job, previous)) {
+                Log.w(TAG, "Queue full, rejecting " + (key != null ? key : "job"));
+                job.reject();
+                return job;
+            }
+
+            if (key != null) {
+                jobsByKey.put(key, job);
+                if (previous != null) {
+                    previous.cancel(true);
+                }
+            }
+            executor.execute(job);
+        }
+        return job;
+    }
+
+    /**
+     * Cancels the pending or running job submitted under key, if any.
+     */
+    public boolean cancel(String key) {
+        Job<?> job = jobsByKey.remove(key);
+        return job != null && job.cancel(true);
+    }
+
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @param replaced queued or running job the incoming one coalesces with, or null
+     */
+    private boolean makeRoomFor(Job<?> incoming, Job<?> replaced) {
+        if (executor.getQueue().size() < MAX_PENDING) {
+            return true;
+        }
+
+        // Coalesced and cancelled jobs still sit in the queue until purged
+        executor.purge();
+        if (executor.getQueue().size() < MAX_PENDING || executor.getQueue().contains(replaced)) {
+            return true;
+        }
+
+        // Evict the least urgent, newest queued job if the incoming one outranks it
+        Job<?> victim = null;
+        for (Iterator<Runnable> it = executor.getQueue().iterator(); it.hasNext(); ) {
+            Job<?> queued = (Job<?>) it.next();
+            if (victim == null || queued.compareTo(victim) > 0) {
+                victim = queued;
+            }
+        }
+        if (victim == null || incoming.compareTo(victim) > 0) {
+            return false;
+        }
+
+        executor.getQueue().remove(victim);
+        victim.reject();
+        Log.w(TAG, "Queue full, dropped " + (victim.key != null ? victim.key : "job"));
+        return true;
+    }
+
+    private static boolean setThreadPriority(int priority) {
+        try {
+            Process.setThreadPriority(priority);
+            return true;
+        } catch (IllegalArgumentException | SecurityException e) {
+            Log.w(TAG, "Cannot set thread priority " + priority, e);
+            return false;
+        }
+    }
+
+    private final class Job<T> extends FutureTask<T> implements Comparable<Job<?>> {
+
+        private final String key;
+        private final Priority priority;
+        private final long order;
+        private final Callback<T> callback;
+        private volatile boolean rejected;
+
+        Job(String key, Priority priority, long order, Callable<T> work, Callback<T> callback) {
+            super(work);
+            this.key = key;
+            this.priority = priority;
+            this.order = order;
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            boolean raised = priority == Priority.INTERACTIVE && setThreadPriority(INTERACTIVE_THREAD_PRIORITY);
+            try {
+                super.run();
+            } finally {
+                if (raised) {
+                    setThreadPriority(WORKER_THREAD_PRIORITY);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+        }
+
+        /**
+         * Cancels a job that never ran because the queue had no room for it, and tells its caller.
+         */
+        void reject() {
+            rejected = true;
+            cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            if (key != null) {
+                jobsByKey.remove(key, this);
+            }
+            if (callback == null) {
+                return;
+            }
+            if (isCancelled()) {
+                // Cancelled by the caller or replaced under its key: the caller moved on
+                if (rejected) {
+                    mainHandler.post(() -> callback.onError(
+                            new RejectedExecutionException("Audio processing queue is full")));
+                }
+                return;
+            }
+
+            try {
+                T result = get();
+                mainHandler.post(() -> callback.onResult(result));
+            } catch (ExecutionException e) {
+                Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                if (!(cause instanceof CancellationException)) {
+                    mainHandler.post(() -> callback.onError(cause));
+                }
+            } catch (InterruptedException | CancellationException ignored) {
+                // Cancelled concurrently; nothing to deliver
+            }
+        }
+    }
+}
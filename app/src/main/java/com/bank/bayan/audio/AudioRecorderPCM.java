@@ -6,14 +6,22 @@ import android.content.pm.PackageManager;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 import androidx.core.content.ContextCompat;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 public class AudioRecorderPCM {
 
@@ -23,14 +31,31 @@ public class AudioRecorderPCM {
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;
     private static final int BUFFER_SIZE_FACTOR = 2;
+    private static final int RING_SECONDS = 4;
+    private static final long CONSUMER_DRAIN_TIMEOUT_MS = 1000;
+    private static final long FEATURE_CATCH_UP_TIMEOUT_MS = 200;
 
+    // Tears recordings down off the main thread, one at a time, for every recorder
+    private static final ExecutorService STOP_EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "audio-recorder-stop"));
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger pendingStops = new AtomicInteger();
     private AudioRecord audioRecord;
-    private Thread recordingThread;
-    private boolean isRecording = false;
+    // The thread owning the current recording; its loop exits once this no longer points at it
+    private volatile Thread recordingThread;
+    private volatile boolean isRecording = false;
     private String outputFilePath;
-    private FileOutputStream fileOutputStream;
+    private WavWriter wavWriter;
+    private short[] captureBuffer;
+    private PcmRingBuffer ringBuffer;
+    private PcmRingBuffer.Cursor extractorCursor;
+    private PcmRingBuffer.Cursor vadCursor;
+    private final List<PcmRingBuffer.Cursor> cursors = new ArrayList<>();
+    private final Map<String, PcmRingBuffer.Consumer> extraConsumers = new LinkedHashMap<>();
     private Context context;
     private VoiceActivityDetector voiceDetector;
+    private StreamingFeatureExtractor featureExtractor;
 
     private int bufferSize;
 
@@ -43,6 +68,21 @@ public class AudioRecorderPCM {
 
     private RecordingListener recordingListener;
 
+    public interface FeaturesListener {
+        void onFeaturesReady(AudioFeatureExtractor.VoiceFeatures features);
+    }
+
+    private FeaturesListener featuresListener;
+
+    public interface SpeechEndListener {
+        /**
+         * Called on the voice detector's thread when it decides the speaker has finished.
+         */
+        void onSpeechEnd();
+    }
+
+    private SpeechEndListener speechEndListener;
+
 
     public AudioRecorderPCM(Context context) {
         this.context = context;
@@ -55,13 +95,96 @@ public class AudioRecorderPCM {
         bufferSize *= BUFFER_SIZE_FACTOR;
 
         Log.d(TAG, "Buffer size: " + bufferSize);
+
+        voiceDetector = new VoiceActivityDetector(new VoiceActivityDetector.VoiceActivityListener() {
+            @Override
+            public void onSpeechStart() {
+                if (recordingListener != null) {
+                    recordingListener.onSpeechDetected();
+                }
+            }
+
+            @Override
+            public void onSpeechEnd() {
+                publishFeatures(vadCursor != null ? vadCursor.getPosition() : 0);
+                if (speechEndListener != null) {
+                    speechEndListener.onSpeechEnd();
+                }
+            }
+
+            @Override
+            public void onSilenceDetected(long speechDurationMs) {
+            }
+        });
     }
 
     public void setRecordingListener(RecordingListener listener) {
         this.recordingListener = listener;
     }
 
+    /**
+     * Feeds every captured buffer into the given extractor so features are
+     * ready the moment the voice detector reports the end of speech.
+     */
+    public void setStreamingExtractor(StreamingFeatureExtractor extractor) {
+        this.featureExtractor = extractor;
+    }
+
+    public void setFeaturesListener(FeaturesListener listener) {
+        this.featuresListener = listener;
+    }
+
+    public void setSpeechEndListener(SpeechEndListener listener) {
+        this.speechEndListener = listener;
+    }
+
+    /**
+     * How long silence must last before speech counts as ended; short
+     * commands can use less than the default.
+     */
+    public void setEndOfSpeechHangoverMs(int hangoverMs) {
+        voiceDetector.setEndOfSpeechHangoverMs(hangoverMs);
+    }
+
+    /**
+     * Registers an additional consumer (e.g. an upload encoder) that receives
+     * captured PCM on its own thread for every subsequent recording.
+     */
+    public void addConsumer(String name, PcmRingBuffer.Consumer consumer) {
+        extraConsumers.put(name, consumer);
+    }
+
+    public void removeConsumer(String name) {
+        extraConsumers.remove(name);
+    }
+
+    /**
+     * Samples each consumer of the current or last recording lost because it fell behind.
+     */
+    public Map<String, Long> getConsumerOverruns() {
+        Map<String, Long> overruns = new LinkedHashMap<>();
+        for (PcmRingBuffer.Cursor cursor : cursors) {
+            overruns.put(cursor.getName(), cursor.getOverrunSamples());
+        }
+        return overruns;
+    }
+
+    /**
+     * Opens the microphone and starts feeding the consumers. Start and stop
+     * are serialized, so a start issued while {@link #stopRecordingAsync}
+     * is still tearing down waits for it; callers on the main thread should
+     * chain the start after the stop instead (see {@link #isStopPending()}).
+     */
     public boolean startRecording(String filePath) {
+        if (pendingStops.get() > 0) {
+            awaitPendingStops();
+        }
+        synchronized (this) {
+            return startRecordingLocked(filePath);
+        }
+    }
+
+    private boolean startRecordingLocked(String filePath) {
         if (isRecording) {
             Log.w(TAG, "Recording is already in progress");
             return false;
@@ -99,19 +222,29 @@ public class AudioRecorderPCM {
 
             if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
                 Log.e(TAG, "AudioRecord initialization failed");
+                cleanup();
                 return false;
             }
 
-            fileOutputStream = new FileOutputStream(outputFile);
+            wavWriter = new WavWriter(outputFile, SAMPLE_RATE);
+            if (captureBuffer == null) {
+                captureBuffer = new short[bufferSize / 2];
+            }
+
+            voiceDetector.reset();
+            if (featureExtractor != null) {
+                featureExtractor.reset();
+            }
 
-            writeWavHeader(fileOutputStream);
+            attachConsumers();
 
             audioRecord.startRecording();
             isRecording = true;
 
-            voiceDetector.reset();
-
-            recordingThread = new Thread(this::recordingLoop);
+            AudioRecord record = audioRecord;
+            PcmRingBuffer ring = ringBuffer;
+            short[] buffer = captureBuffer;
+            recordingThread = new Thread(() -> recordingLoop(record, ring, buffer));
             recordingThread.start();
 
             if (recordingListener != null) {
@@ -133,32 +266,45 @@ public class AudioRecorderPCM {
         }
     }
 
-    public void stopRecording() {
+    /**
+     * Stops capture and waits for the consumers to drain, which can take up
+     * to two seconds; use {@link #stopRecordingAsync} from the main thread.
+     */
+    public synchronized void stopRecording() {
         if (!isRecording) {
             Log.w(TAG, "Recording is not in progress");
             return;
         }
 
-        isRecording = false;
+        // Tear down this recording's objects from locals; clearing the thread tells its loop to exit
+        Thread thread = recordingThread;
+        AudioRecord record = audioRecord;
+        PcmRingBuffer ring = ringBuffer;
+        WavWriter writer = wavWriter;
+        recordingThread = null;
+        audioRecord = null;
+        ringBuffer = null;
+        wavWriter = null;
         long startTime = System.currentTimeMillis();
 
         try {
-            if (recordingThread != null) {
-                recordingThread.join(1000);
+            if (thread != null) {
+                thread.join(1000);
+                if (thread.isAlive()) {
+                    // Still inside a read; give the next recording its own buffer
+                    captureBuffer = null;
+                }
             }
 
-            if (audioRecord != null) {
-                if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                    audioRecord.stop();
-                }
-                audioRecord.release();
-                audioRecord = null;
+            if (record != null && record.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                record.stop();
             }
 
-            if (fileOutputStream != null) {
-                updateWavHeader();
-                fileOutputStream.close();
-                fileOutputStream = null;
+            if (ring != null) {
+                ring.close();
+                if (!ring.awaitConsumers(CONSUMER_DRAIN_TIMEOUT_MS)) {
+                    Log.w(TAG, "Audio consumers did not drain in time");
+                }
             }
 
             long duration = System.currentTimeMillis() - startTime;
@@ -174,38 +320,67 @@ public class AudioRecorderPCM {
                 recordingListener.onRecordingError("خطأ في إيقاف التسجيل: " + e.getMessage());
             }
         } finally {
-            cleanup();
+            release(record, ring, writer);
+            isRecording = false;
         }
     }
 
-    private void recordingLoop() {
-        byte[] buffer = new byte[bufferSize];
-        long startTime = System.currentTimeMillis();
-
-        while (isRecording && audioRecord != null) {
+    /**
+     * Stops on a background thread. Stops run one at a time in the order
+     * requested, and onStopped, if given, runs on the main thread once this
+     * stop and every earlier one have finished, so it can start the next recording.
+     */
+    public void stopRecordingAsync(Runnable onStopped) {
+        pendingStops.incrementAndGet();
+        STOP_EXECUTOR.execute(() -> {
             try {
-                int bytesRead = audioRecord.read(buffer, 0, bufferSize);
+                if (isRecording) {
+                    stopRecording();
+                }
+            } finally {
+                pendingStops.decrementAndGet();
+                if (onStopped != null) {
+                    mainHandler.post(onStopped);
+                }
+            }
+        });
+    }
+
+    private static void awaitPendingStops() {
+        try {
+            // The executor is serial, so this runs once every stop queued before it has finished
+            STOP_EXECUTOR.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Waiting for a pending stop failed", e);
+        }
+    }
 
-                if (bytesRead > 0) {
-                    if (fileOutputStream != null) {
-                        fileOutputStream.write(buffer, 0, bytesRead);
-                    }
+    /**
+     * Whether a stop requested through {@link #stopRecordingAsync} is still running or queued.
+     */
+    public boolean isStopPending() {
+        return pendingStops.get() > 0;
+    }
+
+    private void recordingLoop(AudioRecord record, PcmRingBuffer ring, short[] buffer) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
 
-                    short[] audioSamples = new short[bytesRead / 2];
-                    for (int i = 0, j = 0; i < bytesRead - 1; i += 2, j++) {
-                        audioSamples[j] = (short) ((buffer[i + 1] << 8) | (buffer[i] & 0xFF));
-                    }
+        Thread self = Thread.currentThread();
+        long startTime = System.currentTimeMillis();
 
-                    voiceDetector.processAudioData(audioSamples, audioSamples.length);
+        while (recordingThread == self) {
+            try {
+                int samplesRead = record.read(buffer, 0, buffer.length);
 
-                } else if (bytesRead < 0) {
-                    Log.e(TAG, "Error reading audio data: " + bytesRead);
+                if (samplesRead > 0) {
+                    ring.publish(buffer, samplesRead);
+                } else if (samplesRead < 0) {
+                    Log.e(TAG, "Error reading audio data: " + samplesRead);
                     break;
                 }
 
-            } catch (IOException e) {
-                Log.e(TAG, "Error writing audio data: " + e.getMessage(), e);
-                break;
             } catch (Exception e) {
                 Log.e(TAG, "Unexpected error in recording loop: " + e.getMessage(), e);
                 break;
@@ -220,87 +395,93 @@ public class AudioRecorderPCM {
         }
     }
 
-    private void writeWavHeader(FileOutputStream out) throws IOException {
-        byte[] header = new byte[44];
-
-        header[0] = 'R'; header[1] = 'I'; header[2] = 'F'; header[3] = 'F';
+    private void attachConsumers() {
+        int chunkSize = captureBuffer.length;
 
-        header[8] = 'W'; header[9] = 'A'; header[10] = 'V'; header[11] = 'E';
-
-        // fmt chunk
-        header[12] = 'f'; header[13] = 'm'; header[14] = 't'; header[15] = ' ';
-
-        writeInt(header, 16, 16);
-        writeShort(header, 20, (short) 1);
-        writeShort(header, 22, (short) 1);
-        writeInt(header, 24, SAMPLE_RATE);
-        writeInt(header, 28, SAMPLE_RATE * 2);
-        // Block align (NumChannels * BitsPerSample/8)
-        writeShort(header, 32, (short) 2);
-        writeShort(header, 34, (short) 16);
-
-        header[36] = 'd'; header[37] = 'a'; header[38] = 't'; header[39] = 'a';
-
-        out.write(header);
-    }
+        ringBuffer = new PcmRingBuffer(SAMPLE_RATE * RING_SECONDS);
+        cursors.clear();
+        extractorCursor = null;
 
-    private void updateWavHeader() {
-        try {
-            File file = new File(outputFilePath);
-            long fileSize = file.length();
-            long dataSize = fileSize - 44;
+        cursors.add(ringBuffer.attach(wavWriter, "wav-writer", chunkSize));
 
-            java.io.RandomAccessFile wavFile = new java.io.RandomAccessFile(file, "rw");
+        final StreamingFeatureExtractor extractor = featureExtractor;
+        if (extractor != null) {
+            extractorCursor = ringBuffer.attach(new PcmRingBuffer.Consumer() {
+                @Override
+                public void onSamples(short[] samples, int length) {
+                    extractor.push(samples, length);
+                }
 
-            wavFile.seek(4);
-            wavFile.write(intToByteArray((int) (fileSize - 8)));
+                @Override
+                public void onEnd() {
+                }
+            }, "feature-extractor", chunkSize);
+            cursors.add(extractorCursor);
+        }
 
-            wavFile.seek(40);
-            wavFile.write(intToByteArray((int) dataSize));
+        vadCursor = ringBuffer.attach(new PcmRingBuffer.Consumer() {
+            @Override
+            public void onSamples(short[] samples, int length) {
+                voiceDetector.processAudioData(samples, length);
+            }
 
-            wavFile.close();
+            @Override
+            public void onEnd() {
+            }
+        }, "voice-detector", chunkSize);
+        cursors.add(vadCursor);
 
-        } catch (IOException e) {
-            Log.e(TAG, "Error updating WAV header: " + e.getMessage(), e);
+        for (Map.Entry<String, PcmRingBuffer.Consumer> entry : extraConsumers.entrySet()) {
+            cursors.add(ringBuffer.attach(entry.getValue(), entry.getKey(), chunkSize));
         }
     }
 
-    private void writeInt(byte[] data, int offset, int value) {
-        data[offset] = (byte) (value & 0xff);
-        data[offset + 1] = (byte) ((value >> 8) & 0xff);
-        data[offset + 2] = (byte) ((value >> 16) & 0xff);
-        data[offset + 3] = (byte) ((value >> 24) & 0xff);
-    }
+    private void publishFeatures(long speechEndSequence) {
+        if (featureExtractor == null || featuresListener == null) {
+            return;
+        }
 
-    private void writeShort(byte[] data, int offset, short value) {
-        data[offset] = (byte) (value & 0xff);
-        data[offset + 1] = (byte) ((value >> 8) & 0xff);
-    }
+        // The extractor runs on its own thread; let it catch up to where the detector saw speech end
+        PcmRingBuffer.Cursor cursor = extractorCursor;
+        long deadline = System.currentTimeMillis() + FEATURE_CATCH_UP_TIMEOUT_MS;
+        while (cursor != null && cursor.getPosition() < speechEndSequence
+                && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(1_000_000L);
+        }
 
-    private byte[] intToByteArray(int value) {
-        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+        AudioFeatureExtractor.VoiceFeatures features = featureExtractor.getFeatures();
+        if (features != null) {
+            featuresListener.onFeaturesReady(features);
+        }
     }
 
     private void cleanup() {
+        release(audioRecord, ringBuffer, wavWriter);
+        audioRecord = null;
+        ringBuffer = null;
+        wavWriter = null;
+        isRecording = false;
+        recordingThread = null;
+    }
+
+    private static void release(AudioRecord record, PcmRingBuffer ring, WavWriter writer) {
         try {
-            if (audioRecord != null) {
-                if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                    audioRecord.release();
-                }
-                audioRecord = null;
+            if (ring != null) {
+                ring.close();
+                ring.awaitConsumers(CONSUMER_DRAIN_TIMEOUT_MS);
             }
 
-            if (fileOutputStream != null) {
-                fileOutputStream.close();
-                fileOutputStream = null;
+            if (record != null && record.getState() == AudioRecord.STATE_INITIALIZED) {
+                record.release();
+            }
+
+            if (writer != null) {
+                writer.close();
             }
 
         } catch (Exception e) {
             Log.e(TAG, "Error during cleanup: " + e.getMessage(), e);
         }
-
-        isRecording = false;
-        recordingThread = null;
     }
 
     public boolean isRecording() {
@@ -0,0 +1,67 @@
+package com.bank.bayan.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Precomputed DCT-II basis, so transforming a log-mel vector into cepstral
+ * coefficients is a table lookup and multiply with no trigonometry per frame.
+ */
+public final class DctTable {
+
+    private static final Map<Long, DctTable> CACHE = new HashMap<>();
+
+    private final int inputSize;
+    private final int coefficientCount;
+    // Row-major: coefficient i starts at i * inputSize
+    private final double[] basis;
+
+    private DctTable(int inputSize, int coefficientCount) {
+        this.inputSize = inputSize;
+        this.coefficientCount = coefficientCount;
+        this.basis = new double[inputSize * coefficientCount];
+        for (int i = 0; i < coefficientCount; i++) {
+            for (int j = 0; j < inputSize; j++) {
+                basis[i * inputSize + j] = Math.cos(Math.PI * i * (j + 0.5) / inputSize);
+            }
+        }
+    }
+
+    public static DctTable forSize(int inputSize, int coefficientCount) {
+        long key = ((long) inputSize << 32) | coefficientCount;
+        synchronized (CACHE) {
+            DctTable table = CACHE.get(key);
+            if (table == null) {
+                table = new DctTable(inputSize, coefficientCount);
+                CACHE.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getCoefficientCount() {
+        return coefficientCount;
+    }
+
+    /**
+     * Writes getCoefficientCount() coefficients of input[0, getInputSize()) into out.
+     */
+    public void transform(double[] input, float[] out) {
+        transform(input, out, 0);
+    }
+
+    public void transform(double[] input, float[] out, int outOffset) {
+        for (int i = 0; i < coefficientCount; i++) {
+            int row = i * inputSize;
+            double sum = 0.0;
+            for (int j = 0; j < inputSize; j++) {
+                sum += input[j] * basis[row + j];
+            }
+            out[outOffset + i] = (float) sum;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.bank.bayan.audio;
+
+import java.util.Arrays;
+
+/**
+ * Appends delta and delta-delta coefficients to a stream of static feature
+ * frames. The last 2N+1 static frames and 2N+1 deltas are kept in two fixed
+ * primitive rings, so each pushed frame costs O(N * dimension) with no
+ * allocation and no rescanning of history.
+ *
+ * <p>Deltas use the standard regression
+ * {@code d[t] = sum(n * (c[t+n] - c[t-n])) / (2 * sum(n^2))} for n = 1..N, and
+ * delta-deltas apply the same regression to the deltas. Output lags input by
+ * 2N frames; the utterance is padded by repeating its first and last frames,
+ * so {@link #flush(float[])} yields the frames still pending at the end.
+ */
+public final class DynamicFeatureWindow {
+
+    private final int dimension;
+    private final int halfWidth;
+    private final int width;
+    private final double denominator;
+
+    private final float[] staticRing;
+    private final float[] deltaRing;
+    private final float[] lastFrame;
+
+    private long pushed;
+    private long deltas;
+    private long realFrames;
+    private long emitted;
+
+    public DynamicFeatureWindow(int dimension, int halfWidth) {
+        if (dimension <= 0 || halfWidth <= 0) {
+            throw new IllegalArgumentException("dimension and halfWidth must be positive");
+        }
+        this.dimension = dimension;
+        this.halfWidth = halfWidth;
+        this.width = 2 * halfWidth + 1;
+
+        double sum = 0.0;
+        for (int n = 1; n <= halfWidth; n++) {
+            sum += n * n;
+        }
+        this.denominator = 2 * sum;
+
+        this.staticRing = new float[width * dimension];
+        this.deltaRing = new float[width * dimension];
+        this.lastFrame = new float[dimension];
+    }
+
+    public int getInputDimension() {
+        return dimension;
+    }
+
+    public int getOutputDimension() {
+        return 3 * dimension;
+    }
+
+    /**
+     * Number of frames between pushing a frame and receiving its output.
+     */
+    public int getLatencyFrames() {
+        return 2 * halfWidth;
+    }
+
+    /**
+     * Pushes the next static frame.
+     *
+     * @param out receives [static, delta, delta-delta] of the frame pushed
+     *            getLatencyFrames() calls earlier; at least getOutputDimension() values
+     * @return true if out was filled
+     */
+    public boolean push(float[] frame, float[] out) {
+        return push(frame, 0, out);
+    }
+
+    /**
+     * Pushes the static frame stored at source[offset, offset + getInputDimension()).
+     */
+    public boolean push(float[] source, int offset, float[] out) {
+        if (realFrames == 0) {
+            // Pad the start by repeating the first frame
+            for (int i = 0; i < 2 * halfWidth; i++) {
+                pushStatic(source, offset, null);
+            }
+        }
+
+        System.arraycopy(source, offset, lastFrame, 0, dimension);
+        realFrames++;
+        return pushStatic(source, offset, out);
+    }
+
+    /**
+     * Emits one frame still held back by the window, padding the end with the
+     * last frame. Call until it returns false at the end of an utterance.
+     */
+    public boolean flush(float[] out) {
+        if (emitted >= realFrames) {
+            return false;
+        }
+        return pushStatic(lastFrame, 0, out);
+    }
+
+    public void reset() {
+        Arrays.fill(staticRing, 0f);
+        Arrays.fill(deltaRing, 0f);
+        pushed = 0;
+        deltas = 0;
+        realFrames = 0;
+        emitted = 0;
+    }
+
+    private boolean pushStatic(float[] source, int offset, float[] out) {
+        System.arraycopy(source, offset, staticRing, slot(pushed), dimension);
+        pushed++;
+        if (pushed < width) {
+            return false;
+        }
+
+        // Delta for the middle of the static ring
+        regress(staticRing, pushed - 1 - halfWidth, deltaRing, slot(deltas));
+        deltas++;
+        if (deltas < width) {
+            return false;
+        }
+
+        long center = deltas - 1 - halfWidth;
+        int staticSlot = slot(pushed - 1 - 2 * halfWidth);
+        int deltaSlot = slot(center);
+
+        emitted++;
+        System.arraycopy(staticRing, staticSlot, out, 0, dimension);
+        System.arraycopy(deltaRing, deltaSlot, out, dimension, dimension);
+        regress(deltaRing, center, out, 2 * dimension);
+        return true;
+    }
+
+    private void regress(float[] ring, long center, float[] out, int outOffset) {
+        for (int d = 0; d < dimension; d++) {
+            out[outOffset + d] = 0f;
+        }
+        for (int n = 1; n <= halfWidth; n++) {
+            int ahead = slot(center + n);
+            int behind = slot(center - n);
+            for (int d = 0; d < dimension; d++) {
+                out[outOffset + d] += n * (ring[ahead + d] - ring[behind + d]);
+            }
+        }
+        for (int d = 0; d < dimension; d++) {
+            out[outOffset + d] /= denominator;
+        }
+    }
+
+    private int slot(long index) {
+        return (int) (index % width) * dimension;
+    }
+}
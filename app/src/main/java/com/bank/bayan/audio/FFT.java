@@ -0,0 +1,135 @@
+package com.bank.bayan.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-place iterative radix-2 FFT over primitive re/im arrays.
+ * Twiddle and bit-reversal tables are built once per size and shared, so an
+ * instance acts as a reusable plan: execute it on caller-owned buffers and no
+ * garbage is produced per frame.
+ */
+public final class FFT {
+
+    private static final Map<Integer, FFT> CACHE = new HashMap<>();
+
+    private final int size;
+    private final int[] bitReversed;
+    private final double[] cosTable;
+    private final double[] sinTable;
+
+    private FFT(int size) {
+        this.size = size;
+
+        int levels = Integer.numberOfTrailingZeros(size);
+        bitReversed = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReversed[i] = levels == 0 ? 0 : Integer.reverse(i) >>> (32 - levels);
+        }
+
+        cosTable = new double[size / 2];
+        sinTable = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            double angle = -2 * Math.PI * i / size;
+            cosTable[i] = Math.cos(angle);
+            sinTable[i] = Math.sin(angle);
+        }
+    }
+
+    public static FFT forSize(int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+
+        synchronized (CACHE) {
+            FFT fft = CACHE.get(size);
+            if (fft == null) {
+                fft = new FFT(size);
+                CACHE.put(size, fft);
+            }
+            return fft;
+        }
+    }
+
+    public static int nextPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Forward transform of re/im in place. Both arrays must hold at least getSize() values.
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReversed[i];
+            if (j > i) {
+                double tr = re[i];
+                re[i] = re[j];
+                re[j] = tr;
+                double ti = im[i];
+                im[i] = im[j];
+                im[j] = ti;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (half << 1);
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int even = start + k;
+                    int odd = even + half;
+                    double wr = cosTable[t];
+                    double wi = sinTable[t];
+                    double xr = re[odd] * wr - im[odd] * wi;
+                    double xi = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - xr;
+                    im[odd] = im[even] - xi;
+                    re[even] += xr;
+                    im[even] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Single precision variant of {@link #transform(double[], double[])} for frame buffers.
+     */
+    public void transform(float[] re, float[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReversed[i];
+            if (j > i) {
+                float tr = re[i];
+                re[i] = re[j];
+                re[j] = tr;
+                float ti = im[i];
+                im[i] = im[j];
+                im[j] = ti;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (half << 1);
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    int even = start + k;
+                    int odd = even + half;
+                    float wr = (float) cosTable[t];
+                    float wi = (float) sinTable[t];
+                    float xr = re[odd] * wr - im[odd] * wi;
+                    float xi = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - xr;
+                    im[odd] = im[even] - xi;
+                    re[even] += xr;
+                    im[even] += xi;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.bank.bayan.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sparse mel filterbank. Each filter keeps only the contiguous run of bins it
+ * covers, as a start bin plus its weights, so applying the bank to a spectrum
+ * is one short dot product per filter. Banks are built once per configuration
+ * and shared.
+ */
+public final class MelFilterBank {
+
+    // Gaussian filters are truncated where the weight drops below exp(-32)
+    private static final double GAUSSIAN_CUTOFF_SIGMAS = 8.0;
+
+    private static final Map<String, MelFilterBank> CACHE = new HashMap<>();
+
+    private final int spectrumLength;
+    private final int[] start;
+    private final double[][] weights;
+
+    private MelFilterBank(int spectrumLength, int[] start, double[][] weights) {
+        this.spectrumLength = spectrumLength;
+        this.start = start;
+        this.weights = weights;
+    }
+
+    /**
+     * Triangular filters evenly spaced on the mel scale from 0 Hz to Nyquist.
+     */
+    public static MelFilterBank triangular(int sampleRate, int spectrumLength, int filterCount) {
+        String key = "tri:" + sampleRate + ":" + spectrumLength + ":" + filterCount;
+        synchronized (CACHE) {
+            MelFilterBank bank = CACHE.get(key);
+            if (bank == null) {
+                bank = buildTriangular(sampleRate, spectrumLength, filterCount);
+                CACHE.put(key, bank);
+            }
+            return bank;
+        }
+    }
+
+    /**
+     * Gaussian filters centered every {@code spacingMel} mels from 0, with the given width in mels.
+     */
+    public static MelFilterBank gaussian(double binHz, int spectrumLength, int filterCount,
+                                         double spacingMel, double widthMel) {
+        String key = "gauss:" + binHz + ":" + spectrumLength + ":" + filterCount + ":" + spacingMel + ":" + widthMel;
+        synchronized (CACHE) {
+            MelFilterBank bank = CACHE.get(key);
+            if (bank == null) {
+                bank = buildGaussian(binHz, spectrumLength, filterCount, spacingMel, widthMel);
+                CACHE.put(key, bank);
+            }
+            return bank;
+        }
+    }
+
+    public static double hzToMel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    public static double melToHz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+
+    private static MelFilterBank buildTriangular(int sampleRate, int spectrumLength, int filterCount) {
+        double melHigh = hzToMel(sampleRate / 2.0);
+
+        int[] binPoints = new int[filterCount + 2];
+        for (int i = 0; i < binPoints.length; i++) {
+            double hz = melToHz(melHigh * i / (filterCount + 1));
+            binPoints[i] = (int) Math.floor((spectrumLength + 1) * hz / (sampleRate / 2.0));
+        }
+
+        int[] start = new int[filterCount];
+        double[][] weights = new double[filterCount][];
+        for (int m = 1; m <= filterCount; m++) {
+            int left = binPoints[m - 1];
+            int center = binPoints[m];
+            int right = binPoints[m + 1];
+            int end = Math.min(right, spectrumLength);
+
+            start[m - 1] = left;
+            weights[m - 1] = new double[Math.max(0, end - left)];
+            for (int k = left; k < end; k++) {
+                weights[m - 1][k - left] = k < center
+                        ? (double) (k - left) / (center - left)
+                        : (double) (right - k) / (right - center);
+            }
+        }
+
+        return new MelFilterBank(spectrumLength, start, weights);
+    }
+
+    private static MelFilterBank buildGaussian(double binHz, int spectrumLength, int filterCount,
+                                               double spacingMel, double widthMel) {
+        double[] binMel = new double[spectrumLength];
+        for (int k = 0; k < spectrumLength; k++) {
+            binMel[k] = hzToMel(k * binHz);
+        }
+
+        int[] start = new int[filterCount];
+        double[][] weights = new double[filterCount][];
+        double reach = GAUSSIAN_CUTOFF_SIGMAS * widthMel;
+        for (int i = 0; i < filterCount; i++) {
+            double centerMel = i * spacingMel;
+
+            // binMel is increasing, so the support is one contiguous run
+            int first = 0;
+            while (first < spectrumLength && binMel[first] < centerMel - reach) {
+                first++;
+            }
+            int end = first;
+            while (end < spectrumLength && binMel[end] <= centerMel + reach) {
+                end++;
+            }
+
+            start[i] = first;
+            weights[i] = new double[end - first];
+            for (int k = first; k < end; k++) {
+                double z = (binMel[k] - centerMel) / widthMel;
+                weights[i][k - first] = Math.exp(-0.5 * z * z);
+            }
+        }
+
+        return new MelFilterBank(spectrumLength, start, weights);
+    }
+
+    public int getFilterCount() {
+        return weights.length;
+    }
+
+    public int getSpectrumLength() {
+        return spectrumLength;
+    }
+
+    /**
+     * Writes each filter's weighted sum of spectrum into out[0, getFilterCount()).
+     */
+    public void apply(double[] spectrum, double[] out) {
+        for (int m = 0; m < weights.length; m++) {
+            double[] w = weights[m];
+            int offset = start[m];
+            double sum = 0.0;
+            for (int k = 0; k < w.length; k++) {
+                sum += spectrum[offset + k] * w[k];
+            }
+            out[m] = sum;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.bank.bayan.audio;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer ring of PCM samples with any number of
+ * independent consumers. The capture thread only publishes; it never waits
+ * for a consumer. Each consumer owns a cursor and runs on its own thread, and
+ * a consumer that falls more than a full ring behind is moved forward by the
+ * producer and has the skipped samples added to its overrun counter.
+ */
+public final class PcmRingBuffer {
+
+    private static final String TAG = "PcmRingBuffer";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    public interface Consumer {
+        void onSamples(short[] samples, int length);
+        void onEnd();
+    }
+
+    private final short[] data;
+    private final int mask;
+    private final int capacity;
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    private volatile Cursor[] cursors = new Cursor[0];
+    private volatile boolean closed;
+
+    /**
+     * @param capacity number of samples held; rounded up to a power of two
+     */
+    public PcmRingBuffer(int capacity) {
+        this.capacity = FFT.nextPowerOfTwo(capacity);
+        this.data = new short[this.capacity];
+        this.mask = this.capacity - 1;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getWriteSequence() {
+        return writeSequence.get();
+    }
+
+    /**
+     * Copies samples into the ring. Must only be called from the producer thread.
+     */
+    public void publish(short[] samples, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (length > capacity) {
+            // Only the newest samples can survive anyway
+            int skipped = length - capacity;
+            publish(samples, skipped, capacity);
+        } else {
+            publish(samples, 0, length);
+        }
+    }
+
+    private void publish(short[] samples, int offset, int length) {
+        long start = writeSequence.get();
+        long end = start + length;
+
+        // Move lagging consumers past the region about to be overwritten before touching it
+        Cursor[] snapshot = cursors;
+        for (Cursor cursor : snapshot) {
+            cursor.claimUpTo(end - capacity);
+        }
+
+        int index = (int) (start & mask);
+        int firstPart = Math.min(length, capacity - index);
+        System.arraycopy(samples, offset, data, index, firstPart);
+        if (firstPart < length) {
+            System.arraycopy(samples, offset + firstPart, data, 0, length - firstPart);
+        }
+
+        writeSequence.lazySet(end);
+
+        for (Cursor cursor : snapshot) {
+            cursor.wake();
+        }
+    }
+
+    /**
+     * Attaches a consumer that receives every sample published from now on, on its own thread.
+     */
+    public Cursor attach(Consumer consumer, String name, int chunkSize) {
+        Cursor cursor = new Cursor(consumer, name, chunkSize, writeSequence.get());
+        synchronized (this) {
+            Cursor[] current = cursors;
+            Cursor[] updated = new Cursor[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = cursor;
+            cursors = updated;
+        }
+        cursor.thread.start();
+        return cursor;
+    }
+
+    /**
+     * Stops accepting samples; consumers drain what is left, get onEnd() and exit.
+     */
+    public void close() {
+        closed = true;
+        for (Cursor cursor : cursors) {
+            cursor.wake();
+        }
+    }
+
+    public boolean awaitConsumers(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Cursor cursor : cursors) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                cursor.thread.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (cursor.thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public final class Cursor {
+
+        private final Consumer consumer;
+        private final String name;
+        private final short[] chunk;
+        private final AtomicLong readSequence;
+        private final AtomicLong overrunSamples = new AtomicLong();
+        private final Thread thread;
+
+        private Cursor(Consumer consumer, String name, int chunkSize, long startSequence) {
+            this.consumer = consumer;
+            this.name = name;
+            this.chunk = new short[Math.min(chunkSize, capacity)];
+            this.readSequence = new AtomicLong(startSequence);
+            this.thread = new Thread(this::consumeLoop, name);
+        }
+
+        public long getPosition() {
+            return readSequence.get();
+        }
+
+        public long getOverrunSamples() {
+            return overrunSamples.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private void claimUpTo(long minimumSequence) {
+            long read = readSequence.get();
+            while (read < minimumSequence) {
+                if (readSequence.compareAndSet(read, minimumSequence)) {
+                    overrunSamples.addAndGet(minimumSequence - read);
+                    return;
+                }
+                read = readSequence.get();
+            }
+        }
+
+        private void wake() {
+            LockSupport.unpark(thread);
+        }
+
+        private int read() {
+            long read = readSequence.get();
+            long available = writeSequence.get() - read;
+            if (available <= 0) {
+                return 0;
+            }
+
+            int length = (int) Math.min(available, chunk.length);
+            int index = (int) (read & mask);
+            int firstPart = Math.min(length, capacity - index);
+            System.arraycopy(data, index, chunk, 0, firstPart);
+            if (firstPart < length) {
+                System.arraycopy(data, 0, chunk, firstPart, length - firstPart);
+            }
+
+            // If the producer moved us forward meanwhile, what was copied may be torn
+            return readSequence.compareAndSet(read, read + length) ? length : 0;
+        }
+
+        private void consumeLoop() {
+            try {
+                while (true) {
+                    int length = read();
+                    if (length > 0) {
+                        consumer.onSamples(chunk, length);
+                    } else if (closed) {
+                        if (writeSequence.get() - readSequence.get() <= 0) {
+                            break;
+                        }
+                    } else {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Consumer " + name + " failed: " + e.getMessage(), e);
+            } finally {
+                if (overrunSamples.get() > 0) {
+                    Log.w(TAG, "Consumer " + name + " overran by " + overrunSamples.get() + " samples");
+                }
+                consumer.onEnd();
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.bank.bayan.audio;
+
+import java.nio.ShortBuffer;
+
+/**
+ * YIN pitch tracker. The difference function is derived from an FFT-based
+ * autocorrelation and prefix sums of squared samples, and the lag search is
+ * bounded to the configured frequency range. Scratch buffers are owned by the
+ * tracker, so processing a frame allocates nothing; one instance per thread.
+ */
+public final class PitchTracker {
+
+    private static final double DEFAULT_THRESHOLD = 0.15;
+
+    private final int sampleRate;
+    private final int frameSize;
+    private final int minLag;
+    private final int maxLag;
+    private final double threshold;
+
+    private final FFT fft;
+    private final double[] re;
+    private final double[] im;
+    private final double[] energy;
+    private final double[] difference;
+
+    private double confidence;
+
+    public PitchTracker(int sampleRate, int frameSize, double minFrequency, double maxFrequency) {
+        this(sampleRate, frameSize, minFrequency, maxFrequency, DEFAULT_THRESHOLD);
+    }
+
+    public PitchTracker(int sampleRate, int frameSize, double minFrequency, double maxFrequency, double threshold) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.minLag = Math.max(2, (int) Math.floor(sampleRate / maxFrequency));
+        this.maxLag = Math.min(frameSize / 2 + frameSize / 4, (int) Math.ceil(sampleRate / minFrequency));
+        this.threshold = threshold;
+
+        this.fft = FFT.forSize(FFT.nextPowerOfTwo(frameSize * 2));
+        this.re = new double[fft.getSize()];
+        this.im = new double[fft.getSize()];
+        this.energy = new double[frameSize + 1];
+        this.difference = new double[maxLag + 2];
+    }
+
+    /**
+     * Estimates the pitch of samples[offset, offset + frameSize).
+     *
+     * @return pitch in Hz, or 0 when the frame is unvoiced
+     */
+    public double process(ShortBuffer samples, int offset) {
+        energy[0] = 0.0;
+        for (int i = 0; i < frameSize; i++) {
+            double x = samples.get(offset + i);
+            re[i] = x;
+            energy[i + 1] = energy[i] + x * x;
+        }
+        return estimate();
+    }
+
+    /**
+     * Estimates the pitch of samples[offset, offset + frameSize), at any scale.
+     *
+     * @return pitch in Hz, or 0 when the frame is unvoiced
+     */
+    public double process(float[] samples, int offset) {
+        energy[0] = 0.0;
+        for (int i = 0; i < frameSize; i++) {
+            double x = samples[offset + i];
+            re[i] = x;
+            energy[i + 1] = energy[i] + x * x;
+        }
+        return estimate();
+    }
+
+    // re[0, frameSize) and energy hold the frame
+    private double estimate() {
+        int size = fft.getSize();
+        for (int i = frameSize; i < size; i++) {
+            re[i] = 0.0;
+        }
+        for (int i = 0; i < size; i++) {
+            im[i] = 0.0;
+        }
+
+        if (energy[frameSize] <= 0.0) {
+            confidence = 0.0;
+            return 0.0;
+        }
+
+        // Autocorrelation = inverse transform of the power spectrum. The power
+        // spectrum is real and symmetric, so a forward transform gives size * r(lag).
+        fft.transform(re, im);
+        for (int i = 0; i < size; i++) {
+            re[i] = re[i] * re[i] + im[i] * im[i];
+            im[i] = 0.0;
+        }
+        fft.transform(re, im);
+
+        // Cumulative mean normalized difference, each lag normalized by its overlap
+        double runningSum = 0.0;
+        difference[0] = 1.0;
+        int lastLag = Math.min(maxLag + 1, frameSize - 1);
+        for (int lag = 1; lag <= lastLag; lag++) {
+            int overlap = frameSize - lag;
+            double autocorrelation = re[lag] / size;
+            double d = (energy[overlap] + energy[frameSize] - energy[lag] - 2 * autocorrelation) / overlap;
+            runningSum += d;
+            difference[lag] = runningSum > 0 ? d * lag / runningSum : 1.0;
+        }
+
+        int bestLag = -1;
+        for (int lag = minLag; lag < lastLag; lag++) {
+            if (difference[lag] < threshold) {
+                while (lag + 1 < lastLag && difference[lag + 1] < difference[lag]) {
+                    lag++;
+                }
+                bestLag = lag;
+                break;
+            }
+        }
+
+        if (bestLag < 0) {
+            double minimum = Double.MAX_VALUE;
+            for (int lag = minLag; lag < lastLag; lag++) {
+                minimum = Math.min(minimum, difference[lag]);
+            }
+            confidence = Math.max(0.0, 1.0 - minimum);
+            return 0.0;
+        }
+
+        confidence = Math.max(0.0, Math.min(1.0, 1.0 - difference[bestLag]));
+
+        // Parabolic interpolation around the dip
+        double refinedLag = bestLag;
+        double left = difference[bestLag - 1];
+        double center = difference[bestLag];
+        double right = difference[bestLag + 1];
+        double denominator = left - 2 * center + right;
+        if (denominator > 0) {
+            refinedLag += 0.5 * (left - right) / denominator;
+        }
+
+        return sampleRate / refinedLag;
+    }
+
+    /**
+     * Voicing confidence of the last processed frame in [0, 1].
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+}
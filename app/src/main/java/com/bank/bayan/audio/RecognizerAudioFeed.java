@@ -0,0 +1,111 @@
+package com.bank.bayan.audio;
+
+import android.content.Intent;
+import android.media.AudioFormat;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.speech.RecognizerIntent;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Ring consumer that forwards captured PCM to a SpeechRecognizer through
+ * {@link RecognizerIntent#EXTRA_AUDIO_SOURCE} (Android 13+), so the
+ * recognizer and on-device analysis share one AudioRecord capture. The end of
+ * the capture closes the pipe, which the recognizer takes as end of input.
+ *
+ * <p>Once the recognizer holds its own copy of the read end, call
+ * {@link #releaseReadSide()}. With this process's copy closed, a recognizer
+ * that stops reading (error, cancel, its own endpointing) makes writes fail
+ * instead of blocking the consumer thread when the 64 KB pipe fills.
+ */
+public final class RecognizerAudioFeed implements PcmRingBuffer.Consumer {
+
+    private static final String TAG = "RecognizerAudioFeed";
+
+    // Guarded by this; null once released
+    private ParcelFileDescriptor readSide;
+    private final OutputStream out;
+    private byte[] bytes = new byte[0];
+    private boolean broken;
+
+    private RecognizerAudioFeed(ParcelFileDescriptor readSide, ParcelFileDescriptor writeSide) {
+        this.readSide = readSide;
+        this.out = new ParcelFileDescriptor.AutoCloseOutputStream(writeSide);
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU;
+    }
+
+    /**
+     * Points the recognizer intent at a new pipe and returns the feed that
+     * fills it, or null if the pipe cannot be created.
+     */
+    public static RecognizerAudioFeed create(Intent recognizerIntent, int sampleRate) {
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot share capture with the recognizer", e);
+            return null;
+        }
+
+        recognizerIntent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE, pipe[0]);
+        recognizerIntent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_CHANNEL_COUNT, 1);
+        recognizerIntent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+        recognizerIntent.putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_SAMPLING_RATE, sampleRate);
+        return new RecognizerAudioFeed(pipe[0], pipe[1]);
+    }
+
+    @Override
+    public void onSamples(short[] samples, int length) {
+        if (broken) {
+            return;
+        }
+        if (bytes.length < length * 2) {
+            bytes = new byte[length * 2];
+        }
+        for (int i = 0; i < length; i++) {
+            bytes[2 * i] = (byte) samples[i];
+            bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+        }
+        try {
+            out.write(bytes, 0, length * 2);
+        } catch (IOException e) {
+            // The recognizer closed its end; the capture carries on for the other consumers
+            broken = true;
+        }
+    }
+
+    /**
+     * Closes this process's copy of the read end. SpeechRecognizer.startListening
+     * hands the intent to the service asynchronously, so call this from the
+     * recognizer's first callback (onReadyForSpeech or onError), not right after
+     * startListening.
+     */
+    public synchronized void releaseReadSide() {
+        if (readSide == null) {
+            return;
+        }
+        try {
+            readSide.close();
+        } catch (IOException ignored) {
+        }
+        readSide = null;
+    }
+
+    /**
+     * Closes both ends of the pipe; also call it if the capture never starts.
+     */
+    @Override
+    public void onEnd() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        releaseReadSide();
+    }
+}
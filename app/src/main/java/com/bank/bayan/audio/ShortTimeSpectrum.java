@@ -0,0 +1,111 @@
+package com.bank.bayan.audio;
+
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Short-time power spectrum of a recording: the signal is framed once and every
+ * frame's power spectrum is stored in a single row-major frame-by-bin matrix
+ * that all spectral features read from.
+ */
+public final class ShortTimeSpectrum {
+
+    private static final Map<Integer, double[]> WINDOWS = new HashMap<>();
+
+    private final int frameSize;
+    private final int hopSize;
+    private final int frameCount;
+    private final int binCount;
+    private final float[] power;
+
+    private ShortTimeSpectrum(int frameSize, int hopSize, int frameCount) {
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.frameCount = frameCount;
+        this.binCount = frameSize / 2 + 1;
+        this.power = new float[frameCount * binCount];
+    }
+
+    public static ShortTimeSpectrum compute(short[] samples, int frameSize, int hopSize) {
+        return compute(ShortBuffer.wrap(samples), frameSize, hopSize);
+    }
+
+    /**
+     * Computes the spectrum of samples[0, limit) using absolute reads, so a
+     * memory-mapped buffer is analyzed in place.
+     */
+    public static ShortTimeSpectrum compute(ShortBuffer samples, int frameSize, int hopSize) {
+        int length = samples.limit();
+        int frameCount = length < frameSize ? 0 : (length - frameSize) / hopSize + 1;
+        ShortTimeSpectrum spectrum = new ShortTimeSpectrum(frameSize, hopSize, frameCount);
+
+        FFT fft = FFT.forSize(frameSize);
+        double[] window = hammingWindow(frameSize);
+        double[] re = new double[frameSize];
+        double[] im = new double[frameSize];
+
+        for (int frame = 0; frame < frameCount; frame++) {
+            AudioProcessingScheduler.checkCancelled();
+            int start = frame * hopSize;
+            for (int i = 0; i < frameSize; i++) {
+                re[i] = samples.get(start + i) * window[i];
+                im[i] = 0.0;
+            }
+
+            fft.transform(re, im);
+
+            int row = frame * spectrum.binCount;
+            for (int k = 0; k < spectrum.binCount; k++) {
+                spectrum.power[row + k] = (float) (re[k] * re[k] + im[k] * im[k]);
+            }
+        }
+
+        return spectrum;
+    }
+
+    static double[] hammingWindow(int size) {
+        synchronized (WINDOWS) {
+            double[] window = WINDOWS.get(size);
+            if (window == null) {
+                window = new double[size];
+                for (int i = 0; i < size; i++) {
+                    window[i] = 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (size - 1));
+                }
+                WINDOWS.put(size, window);
+            }
+            return window;
+        }
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    /**
+     * Row-major power matrix; frame f starts at {@code rowOffset(f)} and holds getBinCount() bins.
+     */
+    public float[] getPower() {
+        return power;
+    }
+
+    public int rowOffset(int frame) {
+        return frame * binCount;
+    }
+
+    public double binFrequency(int bin, int sampleRate) {
+        return (double) bin * sampleRate / frameSize;
+    }
+}
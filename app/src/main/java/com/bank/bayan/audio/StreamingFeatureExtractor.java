@@ -0,0 +1,155 @@
+package com.bank.bayan.audio;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Incremental counterpart of {@link AudioFeatureExtractor#extractFeatures}.
+ * PCM chunks are pushed as they are captured; each completed frame is analyzed
+ * immediately and folded into running sums, so {@link #getFeatures()} only has
+ * to summarize and is ready as soon as speech ends.
+ */
+public class StreamingFeatureExtractor {
+
+    private static final int SAMPLE_RATE = AudioFeatureExtractor.SAMPLE_RATE;
+    private static final int FRAME_SIZE = AudioFeatureExtractor.FRAME_SIZE;
+    private static final int HOP_SIZE = AudioFeatureExtractor.HOP_SIZE;
+    private static final int STRIDE = AudioFeatureExtractor.SPEECH_RATE_STRIDE;
+    private static final int BIN_COUNT = FRAME_SIZE / 2 + 1;
+    private static final double BIN_HZ = (double) SAMPLE_RATE / FRAME_SIZE;
+
+    private final FFT fft = FFT.forSize(FRAME_SIZE);
+    private final double[] window = ShortTimeSpectrum.hammingWindow(FRAME_SIZE);
+    private final PitchTracker pitchTracker = new PitchTracker(SAMPLE_RATE, FRAME_SIZE,
+            AudioFeatureExtractor.MIN_PITCH_HZ, AudioFeatureExtractor.MAX_PITCH_HZ);
+
+    private final short[] frame = new short[FRAME_SIZE];
+    private final ShortBuffer frameView = ShortBuffer.wrap(frame);
+    private final double[] re = new double[FRAME_SIZE];
+    private final double[] im = new double[FRAME_SIZE];
+    private final float[] power = new float[BIN_COUNT];
+    private final double[] magnitudeSum = new double[BIN_COUNT];
+
+    private short[] speechRateSamples = new short[SAMPLE_RATE / STRIDE * 10];
+    private int speechRateCount;
+
+    private int frameFill;
+    private long sampleCount;
+    private double amplitudeSum;
+    private int frameCount;
+    private double centroidSum;
+    private int centroidFrames;
+    private double rolloffSum;
+    private int rolloffFrames;
+    private double pitchSum;
+    private int pitchFrames;
+
+    public synchronized void push(short[] chunk, int length) {
+        for (int i = 0; i < length; i++) {
+            short sample = chunk[i];
+
+            amplitudeSum += Math.abs(sample);
+            if (sampleCount % STRIDE == 0) {
+                appendSpeechRateSample(sample);
+            }
+            sampleCount++;
+
+            frame[frameFill++] = sample;
+            if (frameFill == FRAME_SIZE) {
+                processFrame();
+                System.arraycopy(frame, HOP_SIZE, frame, 0, FRAME_SIZE - HOP_SIZE);
+                frameFill = FRAME_SIZE - HOP_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Summarizes everything pushed so far, or returns null if less than a second was captured.
+     */
+    public synchronized AudioFeatureExtractor.VoiceFeatures getFeatures() {
+        if (sampleCount < SAMPLE_RATE) {
+            return null;
+        }
+
+        AudioFeatureExtractor.VoiceFeatures features = new AudioFeatureExtractor.VoiceFeatures();
+
+        features.duration = (double) sampleCount / SAMPLE_RATE;
+        features.averageAmplitude = amplitudeSum / sampleCount;
+        features.averagePitch = pitchFrames > 0 ? pitchSum / pitchFrames : 0.0;
+        features.speechRate = AudioFeatureExtractor.calculateSpeechRate(
+                ShortBuffer.wrap(speechRateSamples), speechRateCount, 1,
+                features.averageAmplitude, features.duration);
+        features.spectralCentroid = centroidFrames > 0 ? centroidSum / centroidFrames : 0.0;
+        features.spectralRolloff = rolloffFrames > 0 ? rolloffSum / rolloffFrames : 0.0;
+
+        double[] magnitude = new double[BIN_COUNT];
+        if (frameCount > 0) {
+            for (int k = 0; k < BIN_COUNT; k++) {
+                magnitude[k] = magnitudeSum[k] / frameCount;
+            }
+        }
+        features.mfccFeatures = AudioFeatureExtractor.calculateMFCC(magnitude, BIN_HZ);
+
+        features.voiceFingerprint = VoiceFingerprint.of(features);
+
+        return features;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(magnitudeSum, 0.0);
+        speechRateCount = 0;
+        frameFill = 0;
+        sampleCount = 0;
+        amplitudeSum = 0.0;
+        frameCount = 0;
+        centroidSum = 0.0;
+        centroidFrames = 0;
+        rolloffSum = 0.0;
+        rolloffFrames = 0;
+        pitchSum = 0.0;
+        pitchFrames = 0;
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    private void processFrame() {
+        double pitch = pitchTracker.process(frameView, 0);
+        if (pitch > AudioFeatureExtractor.MIN_PITCH_HZ && pitch < AudioFeatureExtractor.MAX_PITCH_HZ) {
+            pitchSum += pitch;
+            pitchFrames++;
+        }
+
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            re[i] = frame[i] * window[i];
+            im[i] = 0.0;
+        }
+        fft.transform(re, im);
+
+        for (int k = 0; k < BIN_COUNT; k++) {
+            power[k] = (float) (re[k] * re[k] + im[k] * im[k]);
+            magnitudeSum[k] += Math.sqrt(power[k]);
+        }
+        frameCount++;
+
+        double centroid = AudioFeatureExtractor.frameSpectralCentroid(power, 0, BIN_COUNT, BIN_HZ);
+        if (centroid >= 0) {
+            centroidSum += centroid;
+            centroidFrames++;
+        }
+
+        double rolloff = AudioFeatureExtractor.frameSpectralRolloff(power, 0, BIN_COUNT, BIN_HZ);
+        if (rolloff >= 0) {
+            rolloffSum += rolloff;
+            rolloffFrames++;
+        }
+    }
+
+    private void appendSpeechRateSample(short sample) {
+        if (speechRateCount == speechRateSamples.length) {
+            speechRateSamples = Arrays.copyOf(speechRateSamples, speechRateSamples.length * 2);
+        }
+        speechRateSamples[speechRateCount++] = sample;
+    }
+}
@@ -3,20 +3,67 @@ package com.bank.bayan.audio;
 import android.util.Log;
 
 
+/**
+ * Frame-based voice activity detector that keeps time by sample count. Each
+ * 20 ms frame is scored by mean absolute amplitude and zero-crossing rate
+ * against an adaptive noise floor, with separate onset and release thresholds
+ * (hysteresis) and a configurable end-of-speech hangover.
+ *
+ * <p>The noise floor is tracked by minimum statistics: the lowest smoothed
+ * frame energy over the last ~2 s, kept as minima of short sub-windows. It is
+ * updated during speech as well, so a fan or traffic that starts mid-utterance
+ * becomes the floor within the window and speech still ends; pauses between
+ * words keep it from climbing to speech level. The first frames only seed the
+ * floor with their minimum, so a user already talking when capture starts is
+ * detected at the first pause instead of setting the floor.
+ */
 public class VoiceActivityDetector {
 
     private static final String TAG = "VoiceActivityDetector";
 
-    private static final double SILENCE_THRESHOLD = 500.0;
-    private static final int SILENCE_DURATION_MS = 1500;
-    private static final int MIN_SPEECH_DURATION_MS = 2000;
     private static final int SAMPLE_RATE = 16000;
-    private static final int WINDOW_SIZE_MS = 100;
+    private static final int FRAME_MS = 20;
+    private static final int SAMPLES_PER_FRAME = SAMPLE_RATE * FRAME_MS / 1000;
+
+    private static final double DEFAULT_MIN_THRESHOLD = 150.0;
+    private static final int DEFAULT_HANGOVER_MS = 300;
+    private static final int DEFAULT_MIN_SPEECH_MS = 250;
+    private static final int ONSET_FRAMES = 3;
+
+    private static final double ONSET_RATIO = 3.0;
+    private static final double RELEASE_RATIO = 1.8;
+    private static final double STRONG_ONSET_RATIO = 2.0;
+    private static final double MAX_SPEECH_ZCR = 0.35;
+    private static final double ENERGY_SMOOTHING = 0.3;
+    private static final int SEED_FRAMES = 10;
+    private static final int SUBWINDOW_FRAMES = 12;
+    private static final int SUBWINDOWS = 8;
+
+    private volatile double minThreshold = DEFAULT_MIN_THRESHOLD;
+    private volatile long hangoverSamples = msToSamples(DEFAULT_HANGOVER_MS);
+    private volatile long minSpeechSamples = msToSamples(DEFAULT_MIN_SPEECH_MS);
 
     private boolean isSpeaking = false;
-    private long lastSpeechTime = 0;
-    private long speechStartTime = 0;
-    private int samplesPerWindow;
+    private long samplesProcessed = 0;
+    private long speechStartSample = 0;
+    private long lastSpeechSample = 0;
+    private int consecutiveSpeechFrames = 0;
+    private double noiseFloor = -1.0;
+
+    // Minimum statistics over SUBWINDOWS completed sub-windows plus the current one
+    private double smoothedEnergy = -1.0;
+    private final double[] subwindowMinima = new double[SUBWINDOWS];
+    private int subwindowCount = 0;
+    private int subwindowNext = 0;
+    private double currentMinimum = Double.MAX_VALUE;
+    private int currentFrames = 0;
+    private long framesSeen = 0;
+
+    // Running sums for the frame being accumulated
+    private int frameFill = 0;
+    private double frameAbsSum = 0.0;
+    private int frameCrossings = 0;
+    private boolean lastSampleNegative = false;
 
     public interface VoiceActivityListener {
         void onSpeechStart();
@@ -28,7 +75,6 @@ public class VoiceActivityDetector {
 
     public VoiceActivityDetector(VoiceActivityListener listener) {
         this.listener = listener;
-        this.samplesPerWindow = (SAMPLE_RATE * WINDOW_SIZE_MS) / 1000;
     }
 
     public void processAudioData(short[] audioData, int length) {
@@ -36,59 +82,167 @@ public class VoiceActivityDetector {
             return;
         }
 
-        long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < length; i++) {
+            short sample = audioData[i];
+            boolean negative = sample < 0;
+
+            frameAbsSum += Math.abs(sample);
+            if (frameFill > 0 && negative != lastSampleNegative) {
+                frameCrossings++;
+            }
+            lastSampleNegative = negative;
+
+            if (++frameFill == SAMPLES_PER_FRAME) {
+                samplesProcessed += SAMPLES_PER_FRAME;
+                processFrame(frameAbsSum / SAMPLES_PER_FRAME, (double) frameCrossings / SAMPLES_PER_FRAME);
+                frameFill = 0;
+                frameAbsSum = 0.0;
+                frameCrossings = 0;
+            }
+        }
+    }
+
+    private void processFrame(double energy, double zeroCrossingRate) {
+        updateNoiseFloor(energy);
+        if (framesSeen <= SEED_FRAMES) {
+            // Still seeding the floor; nothing can be classified against it yet
+            return;
+        }
 
-        double energy = calculateEnergy(audioData, length);
+        double onsetThreshold = Math.max(minThreshold, noiseFloor * ONSET_RATIO);
+        double releaseThreshold = Math.max(minThreshold * RELEASE_RATIO / ONSET_RATIO, noiseFloor * RELEASE_RATIO);
 
-        boolean currentlySpeaking = energy > SILENCE_THRESHOLD;
+        boolean speechFrame;
+        if (isSpeaking) {
+            // Release on energy alone so fricatives don't cut an utterance short
+            speechFrame = energy > releaseThreshold;
+        } else {
+            speechFrame = energy > onsetThreshold
+                    && (zeroCrossingRate < MAX_SPEECH_ZCR || energy > onsetThreshold * STRONG_ONSET_RATIO);
+        }
 
-        if (currentlySpeaking) {
-            lastSpeechTime = currentTime;
+        if (speechFrame) {
+            lastSpeechSample = samplesProcessed;
 
             if (!isSpeaking) {
-                isSpeaking = true;
-                speechStartTime = currentTime;
-                if (listener != null) {
-                    listener.onSpeechStart();
+                if (consecutiveSpeechFrames == 0) {
+                    speechStartSample = samplesProcessed - SAMPLES_PER_FRAME;
+                }
+                if (++consecutiveSpeechFrames >= ONSET_FRAMES) {
+                    isSpeaking = true;
+                    if (listener != null) {
+                        listener.onSpeechStart();
+                    }
+                    Log.d(TAG, "Speech started - Energy: " + energy + ", floor: " + noiseFloor);
                 }
-                Log.d(TAG, "Speech started - Energy: " + energy);
             }
         } else {
+            consecutiveSpeechFrames = 0;
+
             if (isSpeaking) {
-                long silenceDuration = currentTime - lastSpeechTime;
-                long speechDuration = lastSpeechTime - speechStartTime;
+                long silenceSamples = samplesProcessed - lastSpeechSample;
+                long speechSamples = lastSpeechSample - speechStartSample;
 
-                if (silenceDuration >= SILENCE_DURATION_MS && speechDuration >= MIN_SPEECH_DURATION_MS) {
+                if (silenceSamples >= hangoverSamples) {
                     isSpeaking = false;
-                    if (listener != null) {
-                        listener.onSpeechEnd();
-                        listener.onSilenceDetected(speechDuration);
+
+                    if (speechSamples >= minSpeechSamples) {
+                        long speechDuration = samplesToMs(speechSamples);
+                        if (listener != null) {
+                            listener.onSpeechEnd();
+                            listener.onSilenceDetected(speechDuration);
+                        }
+                        Log.d(TAG, "Speech ended - Duration: " + speechDuration + "ms, Silence: "
+                                + samplesToMs(silenceSamples) + "ms");
+                    } else {
+                        Log.d(TAG, "Discarded short burst: " + samplesToMs(speechSamples) + "ms");
                     }
-                    Log.d(TAG, "Speech ended - Duration: " + speechDuration + "ms, Silence: " + silenceDuration + "ms");
                 }
             }
         }
     }
 
-    private double calculateEnergy(short[] audioData, int length) {
-        double sum = 0.0;
-        for (int i = 0; i < length; i++) {
-            sum += Math.abs(audioData[i]);
+    private void updateNoiseFloor(double energy) {
+        framesSeen++;
+        smoothedEnergy = smoothedEnergy < 0 ? energy
+                : smoothedEnergy + ENERGY_SMOOTHING * (energy - smoothedEnergy);
+
+        // Raw energies while seeding, so the quietest early frame counts in full
+        double value = framesSeen <= SEED_FRAMES ? energy : smoothedEnergy;
+        currentMinimum = Math.min(currentMinimum, value);
+        if (++currentFrames == SUBWINDOW_FRAMES) {
+            subwindowMinima[subwindowNext] = currentMinimum;
+            subwindowNext = (subwindowNext + 1) % SUBWINDOWS;
+            subwindowCount = Math.min(subwindowCount + 1, SUBWINDOWS);
+            currentMinimum = Double.MAX_VALUE;
+            currentFrames = 0;
+        }
+
+        double minimum = currentMinimum;
+        for (int i = 0; i < subwindowCount; i++) {
+            minimum = Math.min(minimum, subwindowMinima[i]);
         }
-        return sum / length;
+        noiseFloor = minimum;
     }
 
     public void reset() {
         isSpeaking = false;
-        lastSpeechTime = 0;
-        speechStartTime = 0;
+        samplesProcessed = 0;
+        speechStartSample = 0;
+        lastSpeechSample = 0;
+        consecutiveSpeechFrames = 0;
+        noiseFloor = -1.0;
+        smoothedEnergy = -1.0;
+        subwindowCount = 0;
+        subwindowNext = 0;
+        currentMinimum = Double.MAX_VALUE;
+        currentFrames = 0;
+        framesSeen = 0;
+        frameFill = 0;
+        frameAbsSum = 0.0;
+        frameCrossings = 0;
+        lastSampleNegative = false;
     }
 
 
+    /**
+     * Lowest mean absolute amplitude that can count as speech, however quiet the room is.
+     */
     public void setSilenceThreshold(double threshold) {
+        this.minThreshold = threshold;
+    }
+
+    /**
+     * How long silence must last after speech before the end of speech is reported.
+     */
+    public void setEndOfSpeechHangoverMs(int hangoverMs) {
+        this.hangoverSamples = msToSamples(hangoverMs);
+    }
+
+    public void setMinSpeechDurationMs(int durationMs) {
+        this.minSpeechSamples = msToSamples(durationMs);
     }
 
     public boolean isSpeaking() {
         return isSpeaking;
     }
-}
\ No newline at end of file
+
+    public double getNoiseFloor() {
+        return Math.max(noiseFloor, 0.0);
+    }
+
+    /**
+     * Position of the detector in the stream, in milliseconds of audio processed.
+     */
+    public long getStreamPositionMs() {
+        return samplesToMs(samplesProcessed);
+    }
+
+    private static long msToSamples(int ms) {
+        return (long) ms * SAMPLE_RATE / 1000;
+    }
+
+    private static long samplesToMs(long samples) {
+        return samples * 1000 / SAMPLE_RATE;
+    }
+}
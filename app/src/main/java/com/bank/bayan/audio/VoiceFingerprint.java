@@ -0,0 +1,162 @@
+package com.bank.bayan.audio;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 128-bit locality-sensitive voice fingerprint (SimHash over random
+ * hyperplanes). Each bit is the side of one fixed hyperplane the feature
+ * vector falls on, so the fraction of differing bits estimates the angle
+ * between two vectors and comparing is an XOR and a popcount per word.
+ *
+ * <p>The hyperplanes come from a fixed seed, so fingerprints computed on any
+ * device are comparable and can be stored and scanned as plain longs.
+ */
+public final class VoiceFingerprint {
+
+    public static final int BITS = 128;
+    public static final int WORDS = BITS / 64;
+
+    private static final long SEED = 0x42617961_6e565046L;
+    private static final Map<Integer, float[]> HYPERPLANES = new HashMap<>();
+
+    // Reference points and scales that centre the scalar features around typical speech
+    private static final double REFERENCE_PITCH_HZ = 150.0;
+    private static final double REFERENCE_AMPLITUDE = 1000.0;
+    private static final double REFERENCE_SPEECH_RATE = 4.0;
+    private static final double REFERENCE_CENTROID_HZ = 1500.0;
+    private static final double REFERENCE_ROLLOFF_HZ = 3000.0;
+    private static final double LOG_SCALE = 0.5;
+    private static final double SPEECH_RATE_SCALE = 2.0;
+    private static final int SCALAR_FEATURES = 5;
+
+    private VoiceFingerprint() {
+    }
+
+    /**
+     * Fingerprint of the summary features; the MFCC part is standardized per
+     * vector so it reflects spectral shape rather than loudness.
+     */
+    public static long[] of(AudioFeatureExtractor.VoiceFeatures features) {
+        int mfccCount = features.mfccFeatures != null ? features.mfccFeatures.length : 0;
+        float[] vector = new float[SCALAR_FEATURES + mfccCount];
+
+        vector[0] = logRatio(features.averagePitch, REFERENCE_PITCH_HZ);
+        vector[1] = logRatio(features.averageAmplitude, REFERENCE_AMPLITUDE);
+        vector[2] = (float) ((features.speechRate - REFERENCE_SPEECH_RATE) / SPEECH_RATE_SCALE);
+        vector[3] = logRatio(features.spectralCentroid, REFERENCE_CENTROID_HZ);
+        vector[4] = logRatio(features.spectralRolloff, REFERENCE_ROLLOFF_HZ);
+
+        if (mfccCount > 0) {
+            double mean = 0.0;
+            for (double value : features.mfccFeatures) {
+                mean += value;
+            }
+            mean /= mfccCount;
+
+            double variance = 0.0;
+            for (double value : features.mfccFeatures) {
+                variance += (value - mean) * (value - mean);
+            }
+            double std = Math.sqrt(variance / mfccCount);
+
+            for (int i = 0; i < mfccCount; i++) {
+                vector[SCALAR_FEATURES + i] = std > 0.0
+                        ? (float) ((features.mfccFeatures[i] - mean) / std) : 0f;
+            }
+        }
+
+        return of(vector, 0, vector.length);
+    }
+
+    /**
+     * Fingerprint of an arbitrary vector, e.g. a speaker embedding. Only
+     * vectors of the same length have comparable fingerprints.
+     */
+    public static long[] of(float[] vector, int offset, int length) {
+        float[] planes = hyperplanes(length);
+        long[] bits = new long[WORDS];
+
+        for (int bit = 0; bit < BITS; bit++) {
+            int plane = bit * length;
+            float dot = 0f;
+            for (int i = 0; i < length; i++) {
+                dot += planes[plane + i] * vector[offset + i];
+            }
+            if (dot >= 0f) {
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+        return bits;
+    }
+
+    public static int hammingDistance(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < WORDS; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    /**
+     * Fraction of matching bits in [0, 1]; 0.5 is what unrelated vectors give.
+     */
+    public static double similarity(long[] a, long[] b) {
+        if (a == null || b == null || a.length != WORDS || b.length != WORDS) {
+            return 0.0;
+        }
+        return 1.0 - (double) hammingDistance(a, b) / BITS;
+    }
+
+    public static String toHex(long[] fingerprint) {
+        StringBuilder hex = new StringBuilder(WORDS * 16);
+        for (long word : fingerprint) {
+            String digits = Long.toHexString(word);
+            for (int pad = digits.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(digits);
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Parses toHex output; returns null for anything else, such as fingerprints
+     * stored in the old decimal format.
+     */
+    public static long[] fromHex(String hex) {
+        if (hex == null || hex.length() != WORDS * 16) {
+            return null;
+        }
+        long[] fingerprint = new long[WORDS];
+        try {
+            for (int i = 0; i < WORDS; i++) {
+                fingerprint[i] = Long.parseUnsignedLong(hex.substring(i * 16, (i + 1) * 16), 16);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return fingerprint;
+    }
+
+    private static float logRatio(double value, double reference) {
+        return value > 0.0 ? (float) (Math.log(value / reference) / LOG_SCALE) : 0f;
+    }
+
+    // BITS Gaussian hyperplanes of the given dimension, row-major
+    private static float[] hyperplanes(int dimension) {
+        synchronized (HYPERPLANES) {
+            float[] planes = HYPERPLANES.get(dimension);
+            if (planes == null) {
+                Random random = new Random(SEED + dimension);
+                planes = new float[BITS * dimension];
+                for (int i = 0; i < planes.length; i++) {
+                    planes[i] = (float) random.nextGaussian();
+                }
+                HYPERPLANES.put(dimension, planes);
+            }
+            return planes;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.bank.bayan.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 16-bit PCM WAV reader. RIFF chunks are walked properly (extra chunks such as
+ * LIST are skipped) and the data chunk is exposed as a read-only ShortBuffer
+ * over a memory-mapped region, so samples are never copied onto the heap.
+ */
+public final class WavFile {
+
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FORMAT_PCM = 1;
+
+    private final int sampleRate;
+    private final int channels;
+    private final int bitsPerSample;
+    private final ShortBuffer samples;
+
+    private WavFile(int sampleRate, int channels, int bitsPerSample, ShortBuffer samples) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.samples = samples;
+    }
+
+    public static WavFile read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileSize = channel.size();
+
+            ByteBuffer header = ByteBuffer.allocate(RIFF_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (!hasId(header, 0, "RIFF") || !hasId(header, 8, "WAVE")) {
+                throw new IOException("Not a RIFF/WAVE file: " + file.getName());
+            }
+
+            int sampleRate = 0;
+            int channels = 0;
+            int bitsPerSample = 0;
+            boolean hasFormat = false;
+
+            ByteBuffer chunk = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            long position = RIFF_HEADER_SIZE;
+
+            while (position + CHUNK_HEADER_SIZE <= fileSize) {
+                chunk.clear().limit(CHUNK_HEADER_SIZE);
+                readFully(channel, chunk, position);
+                long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+                long body = position + CHUNK_HEADER_SIZE;
+
+                if (hasId(chunk, 0, "fmt ")) {
+                    chunk.clear().limit(16);
+                    readFully(channel, chunk, body);
+                    int format = chunk.getShort(0) & 0xFFFF;
+                    channels = chunk.getShort(2) & 0xFFFF;
+                    sampleRate = chunk.getInt(4);
+                    bitsPerSample = chunk.getShort(14) & 0xFFFF;
+                    if (format != FORMAT_PCM || bitsPerSample != 16) {
+                        throw new IOException("Unsupported WAV encoding: format=" + format
+                                + ", bits=" + bitsPerSample);
+                    }
+                    hasFormat = true;
+
+                } else if (hasId(chunk, 0, "data")) {
+                    if (!hasFormat) {
+                        throw new IOException("WAV data chunk precedes fmt chunk");
+                    }
+
+                    // Recordings cut short before the header was patched carry a zero
+                    // or oversized length, so fall back to the rest of the file.
+                    long available = fileSize - body;
+                    long dataSize = chunkSize == 0 || chunkSize > available ? available : chunkSize;
+                    dataSize &= ~1L;
+
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, body, dataSize);
+                    ShortBuffer samples = data.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().asReadOnlyBuffer();
+                    return new WavFile(sampleRate, channels, bitsPerSample, samples);
+                }
+
+                // Chunks are word aligned
+                position = body + chunkSize + (chunkSize & 1);
+            }
+
+            throw new IOException("WAV file has no data chunk: " + file.getName());
+
+        } finally {
+            // The mapping stays valid after the channel is closed
+            randomAccessFile.close();
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public int getSampleCount() {
+        return samples.limit();
+    }
+
+    /**
+     * Read-only view of the interleaved samples; each call returns an independent cursor.
+     */
+    public ShortBuffer getSamples() {
+        return samples.duplicate();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of WAV file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static boolean hasId(ByteBuffer buffer, int offset, String id) {
+        for (int i = 0; i < 4; i++) {
+            if (buffer.get(offset + i) != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,128 @@
+package com.bank.bayan.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 16-bit mono PCM WAV writer. Samples are staged in one preallocated direct
+ * buffer that is flushed to a FileChannel when full, so writing allocates
+ * nothing. It is meant to run as a {@link PcmRingBuffer} consumer, keeping
+ * disk I/O off the capture thread.
+ */
+public class WavWriter implements PcmRingBuffer.Consumer {
+
+    private static final int HEADER_SIZE = 44;
+    private static final int BUFFER_BYTES = 32 * 1024;
+
+    private final int sampleRate;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long bytesWritten;
+    private IOException writeError;
+    private boolean closed;
+
+    public WavWriter(File outputFile, int sampleRate) throws IOException {
+        this.sampleRate = sampleRate;
+        this.file = new RandomAccessFile(outputFile, "rw");
+        this.channel = file.getChannel();
+
+        channel.truncate(0);
+        writeHeader(0);
+        channel.position(HEADER_SIZE);
+    }
+
+    public void write(short[] samples, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            buffer.putShort(samples[i]);
+        }
+    }
+
+    @Override
+    public void onSamples(short[] samples, int length) {
+        if (writeError != null) {
+            return;
+        }
+        try {
+            write(samples, length);
+        } catch (IOException e) {
+            writeError = e;
+        }
+    }
+
+    @Override
+    public void onEnd() {
+    }
+
+    /**
+     * Flushes pending samples, patches the RIFF sizes and closes the file.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (writeError == null) {
+                flush();
+            }
+            writeHeader(bytesWritten);
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader(long dataSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt((int) (dataSize + HEADER_SIZE - 8));
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+
+        // fmt chunk
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) 1);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * 2);
+        // Block align (NumChannels * BitsPerSample/8)
+        header.putShort((short) 2);
+        header.putShort((short) 16);
+
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt((int) dataSize);
+
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.bank.bayan;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DtwMatcherTest {
+
+    private static final int DIMENSION = 6;
+    private static final float BAND = 0.2f;
+
+    private final Random random = new Random(11);
+
+    // A smooth random trajectory, like MFCCs of one utterance
+    private FeatureMatrix sequence(int length) {
+        FeatureMatrix frames = new FeatureMatrix(DIMENSION);
+        float[] row = new float[DIMENSION];
+        for (int i = 0; i < length; i++) {
+            for (int d = 0; d < DIMENSION; d++) {
+                row[d] += (float) random.nextGaussian();
+            }
+            frames.addRow(row);
+        }
+        return frames;
+    }
+
+    // The same trajectory at another tempo, with a little noise
+    private FeatureMatrix resample(FeatureMatrix source, int length) {
+        FeatureMatrix frames = new FeatureMatrix(DIMENSION);
+        float[] row = new float[DIMENSION];
+        for (int i = 0; i < length; i++) {
+            int from = (int) ((long) i * (source.getRowCount() - 1) / Math.max(1, length - 1));
+            for (int d = 0; d < DIMENSION; d++) {
+                row[d] = source.get(from, d) + (float) random.nextGaussian() * 0.1f;
+            }
+            frames.addRow(row);
+        }
+        return frames;
+    }
+
+    // Full-matrix DTW over the same Sakoe-Chiba band, normalized like DtwMatcher
+    private static double bruteForce(FeatureMatrix query, FeatureMatrix take) {
+        int n = query.getRowCount();
+        int m = take.getRowCount();
+        int radius = Math.max(1, Math.round(BAND * m));
+        double[][] cost = new double[n][m];
+
+        for (int i = 0; i < n; i++) {
+            int center = n > 1 ? (int) ((long) i * (m - 1) * 2 / (n - 1) + 1) / 2 : 0;
+            for (int j = 0; j < m; j++) {
+                cost[i][j] = Double.POSITIVE_INFINITY;
+                if (Math.abs(j - center) > radius) {
+                    continue;
+                }
+
+                double best = i == 0 && j == 0 ? 0.0 : Double.POSITIVE_INFINITY;
+                if (i > 0) best = Math.min(best, cost[i - 1][j]);
+                if (j > 0) best = Math.min(best, cost[i][j - 1]);
+                if (i > 0 && j > 0) best = Math.min(best, cost[i - 1][j - 1]);
+
+                double distance = 0.0;
+                for (int d = 0; d < DIMENSION; d++) {
+                    double diff = query.get(i, d) - take.get(j, d);
+                    distance += diff * diff;
+                }
+                cost[i][j] = best + distance;
+            }
+        }
+        return cost[n - 1][m - 1] / (n + m);
+    }
+
+    @Test
+    public void distanceMatchesFullMatrixDtw() {
+        DtwMatcher matcher = new DtwMatcher(DIMENSION, BAND);
+        for (int trial = 0; trial < 50; trial++) {
+            FeatureMatrix take = sequence(20 + random.nextInt(40));
+            FeatureMatrix query = random.nextBoolean()
+                    ? resample(take, 15 + random.nextInt(60)) : sequence(15 + random.nextInt(60));
+
+            double expected = bruteForce(query, take);
+            double actual = matcher.distance(query, matcher.prepare(take), Double.POSITIVE_INFINITY);
+            assertEquals("trial " + trial, expected, actual, expected * 1e-5);
+        }
+    }
+
+    @Test
+    public void earlyAbandonNeverChangesTheResult() {
+        DtwMatcher matcher = new DtwMatcher(DIMENSION, BAND);
+        for (int trial = 0; trial < 50; trial++) {
+            FeatureMatrix take = sequence(30);
+            FeatureMatrix query = sequence(25 + random.nextInt(20));
+            double exact = bruteForce(query, take);
+            DtwMatcher.Reference reference = matcher.prepare(take);
+
+            assertEquals(exact, matcher.distance(query, reference, exact * 1.01), exact * 1e-5);
+            // Below the threshold the pass may stop early, but never reports a smaller cost
+            double abandoned = matcher.distance(query, reference, exact * 0.99);
+            assertTrue(Double.isInfinite(abandoned) || Math.abs(abandoned - exact) <= exact * 1e-5);
+        }
+    }
+
+    @Test
+    public void bestMatchPicksTheClosestTake() {
+        DtwMatcher matcher = new DtwMatcher(DIMENSION, BAND);
+        List<FeatureMatrix> raw = new ArrayList<>();
+        List<DtwMatcher.Reference> takes = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            FeatureMatrix take = sequence(30 + random.nextInt(20));
+            raw.add(take);
+            takes.add(matcher.prepare(take));
+        }
+
+        for (int target = 0; target < takes.size(); target++) {
+            FeatureMatrix query = resample(raw.get(target), 40);
+            int closest = 0;
+            for (int t = 1; t < raw.size(); t++) {
+                if (bruteForce(query, raw.get(t)) < bruteForce(query, raw.get(closest))) {
+                    closest = t;
+                }
+            }
+
+            DtwMatcher.Match match = matcher.bestMatch(query, takes, Double.POSITIVE_INFINITY);
+            assertNotNull(match);
+            assertEquals(closest, match.index);
+            assertEquals(bruteForce(query, raw.get(closest)), match.distance, match.distance * 1e-5);
+            assertNull(matcher.bestMatch(query, takes, match.distance * 0.99));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.bank.bayan;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TakeStoreTest {
+
+    private static final int DIMENSION = AdvancedVoiceAnalyzer.FEATURE_DIMENSION;
+    private static final float BAND = 0.2f;
+
+    private final Random random = new Random(17);
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("takes").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private FeatureMatrix take(int length) {
+        FeatureMatrix frames = new FeatureMatrix(DIMENSION);
+        float[] row = new float[DIMENSION];
+        for (int i = 0; i < length; i++) {
+            for (int d = 0; d < DIMENSION; d++) {
+                row[d] += (float) random.nextGaussian();
+            }
+            frames.addRow(row);
+        }
+        return frames;
+    }
+
+    private TakeStore store(String prefix) {
+        return new TakeStore(directory, prefix, 3, 2, BAND, 1.5);
+    }
+
+    @Test
+    public void acceptDistanceIsFactorTimesMeanPairDistance() throws InterruptedException {
+        TakeStore store = store("");
+        FeatureMatrix first = take(30);
+        FeatureMatrix second = take(35);
+
+        store.add(first);
+        assertFalse(store.hasEnoughTakes());
+        assertEquals(0.0, store.getAcceptDistance(), 0.0);
+
+        Thread.sleep(2); // distinct file times
+        store.add(second);
+        assertTrue(store.hasEnoughTakes());
+
+        DtwMatcher matcher = new DtwMatcher(DIMENSION, BAND);
+        double mean = (matcher.distance(first, matcher.prepare(second), Double.POSITIVE_INFINITY)
+                + matcher.distance(second, matcher.prepare(first), Double.POSITIVE_INFINITY)) / 2;
+        assertEquals(1.5 * mean, store.getAcceptDistance(), mean * 1e-6);
+
+        store.setAcceptFactor(3.0);
+        assertEquals(3.0 * mean, store.getAcceptDistance(), mean * 1e-6);
+    }
+
+    @Test
+    public void keepsTheNewestTakesInMemoryAndOnDisk() throws InterruptedException {
+        TakeStore store = store("");
+        int[] lengths = {20, 25, 30, 35, 40};
+        for (int length : lengths) {
+            store.add(take(length));
+            Thread.sleep(2);
+        }
+        assertEquals(3, store.getTakes().size());
+        assertEquals(3, TakeStore.countStored(directory, ""));
+
+        TakeStore reloaded = store("");
+        reloaded.load();
+        assertEquals(3, reloaded.getTakes().size());
+        assertEquals(30, reloaded.getTakes().get(0).getFrames().getRowCount());
+        assertEquals(40, reloaded.getTakes().get(2).getFrames().getRowCount());
+        assertEquals(store.getAcceptDistance(), reloaded.getAcceptDistance(), 0.0);
+    }
+
+    @Test
+    public void prefixesKeepWordsApart() {
+        TakeStore first = store("0_");
+        TakeStore second = store("1_");
+        first.add(take(20));
+        second.add(take(25));
+
+        second.clear();
+        assertEquals(1, TakeStore.countStored(directory, "0_"));
+        assertEquals(0, TakeStore.countStored(directory, "1_"));
+        assertTrue(second.getTakes().isEmpty());
+    }
+
+    @Test
+    public void unreadableTakesAreDropped() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "1.bin"))) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        TakeStore store = store("");
+        store.add(take(20));
+
+        store.load();
+        assertEquals(1, store.getTakes().size());
+        assertEquals(1, TakeStore.countStored(directory, ""));
+    }
+}
@@ -0,0 +1,130 @@
+package com.bank.bayan;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class VoiceCodecTest {
+
+    private static VoiceTemplate template(int dimension) {
+        VoiceTemplate template = new VoiceTemplate();
+        float[] mean = new float[dimension];
+        float[] std = new float[dimension];
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            mean[i] = i * 0.5f - 3f;
+            std[i] = 1f + i * 0.25f;
+            min[i] = mean[i] - 2 * std[i];
+            max[i] = mean[i] + 2 * std[i];
+        }
+        template.setMeanFeatures(mean);
+        template.setStdFeatures(std);
+        template.setMinFeatures(min);
+        template.setMaxFeatures(max);
+        template.setFundamentalFrequency(182.5f);
+        template.setSpectralCentroid(1400f);
+        template.setSpectralRolloff(3100f);
+        template.setZeroCrossingRate(0.12f);
+        template.setMfccVariance(0.8f);
+        template.setQualityScore(0.9f);
+        template.setFrameCount(240);
+        return template;
+    }
+
+    @Test
+    public void templateRoundTrip() {
+        VoiceTemplate original = template(39);
+        VoiceTemplate decoded = VoiceCodec.decodeTemplate(VoiceCodec.encode(original, false));
+
+        assertArrayEquals(original.getMeanFeatures(), decoded.getMeanFeatures(), 0f);
+        assertArrayEquals(original.getStdFeatures(), decoded.getStdFeatures(), 0f);
+        assertArrayEquals(original.getMinFeatures(), decoded.getMinFeatures(), 0f);
+        assertArrayEquals(original.getMaxFeatures(), decoded.getMaxFeatures(), 0f);
+        assertEquals(original.getFundamentalFrequency(), decoded.getFundamentalFrequency(), 0f);
+        assertEquals(original.getQualityScore(), decoded.getQualityScore(), 0f);
+        assertEquals(original.getFrameCount(), decoded.getFrameCount());
+    }
+
+    @Test
+    public void halfPrecisionTemplateStaysClose() {
+        VoiceTemplate original = template(39);
+        VoiceTemplate decoded = VoiceCodec.templateFromBase64(VoiceCodec.toBase64(original, true));
+
+        assertArrayEquals(original.getMeanFeatures(), decoded.getMeanFeatures(), 0.01f);
+        assertArrayEquals(original.getStdFeatures(), decoded.getStdFeatures(), 0.01f);
+    }
+
+    @Test
+    public void vectorRoundTrip() {
+        float[] vector = {0.25f, -1.5f, 3.75f, 0f, 1e-3f};
+        assertArrayEquals(vector, VoiceCodec.vectorFromBase64(VoiceCodec.toBase64(vector)), 0f);
+    }
+
+    @Test
+    public void decodingLeavesCallerByteOrderAndAdvancesPosition() {
+        byte[] first = VoiceCodec.toBytes(VoiceCodec.encode(new float[]{1f, 2f}));
+        byte[] second = VoiceCodec.toBytes(VoiceCodec.encode(new float[]{3f, 4f, 5f}));
+        ByteBuffer both = ByteBuffer.allocate(first.length + second.length).order(ByteOrder.BIG_ENDIAN);
+        both.put(first).put(second).flip();
+
+        assertArrayEquals(new float[]{1f, 2f}, VoiceCodec.decodeVector(both), 0f);
+        assertEquals(ByteOrder.BIG_ENDIAN, both.order());
+        assertEquals(first.length, both.position());
+
+        assertArrayEquals(new float[]{3f, 4f, 5f}, VoiceCodec.decodeVector(both), 0f);
+        assertFalse(both.hasRemaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongKindIsRejected() {
+        VoiceCodec.decodeTemplate(VoiceCodec.encode(new float[]{1f}));
+    }
+
+    @Test
+    public void everyHalfValueSurvivesWidening() {
+        for (int bits = 0; bits <= 0xFFFF; bits++) {
+            short half = (short) bits;
+            float value = VoiceCodec.toFloat(half);
+            if (Float.isNaN(value)) {
+                assertEquals(0x7C00, bits & 0x7C00);
+                assertTrue((bits & 0x3FF) != 0);
+            } else {
+                assertEquals("0x" + Integer.toHexString(bits), half, VoiceCodec.toHalf(value));
+            }
+        }
+    }
+
+    @Test
+    public void halfEdgeValues() {
+        assertEquals(0x0000, VoiceCodec.toHalf(0f));
+        assertEquals((short) 0x8000, VoiceCodec.toHalf(-0f));
+        assertEquals(0x7BFF, VoiceCodec.toHalf(65504f));
+        assertEquals(0x7BFF, VoiceCodec.toHalf(65519.99f));
+        assertEquals(0x7C00, VoiceCodec.toHalf(65520f));
+        assertEquals(0x7C00, VoiceCodec.toHalf(1e10f));
+        assertEquals((short) 0xFC00, VoiceCodec.toHalf(Float.NEGATIVE_INFINITY));
+        assertEquals(0x7C00, VoiceCodec.toHalf(Float.POSITIVE_INFINITY));
+        assertTrue(Float.isNaN(VoiceCodec.toFloat(VoiceCodec.toHalf(Float.NaN))));
+
+        // Smallest normal and subnormals
+        assertEquals(0x0400, VoiceCodec.toHalf(0x1p-14f));
+        assertEquals(0x0001, VoiceCodec.toHalf(0x1p-24f));
+        assertEquals(0x0000, VoiceCodec.toHalf(0x1p-25f));
+        assertEquals(0x0001, VoiceCodec.toHalf(0x1.8p-25f));
+        assertEquals(0x0002, VoiceCodec.toHalf(0x1.4p-23f));
+        assertEquals(0x0004, VoiceCodec.toHalf(0x1.cp-23f));
+        assertEquals((short) 0x8001, VoiceCodec.toHalf(-0x1p-24f));
+        assertEquals(0x1p-24f, VoiceCodec.toFloat((short) 0x0001), 0f);
+        assertEquals(0x0400, VoiceCodec.toHalf(0x1.ffep-15f));
+
+        // Ties go to the even mantissa
+        assertEquals(0x3C00, VoiceCodec.toHalf(1f + 0x1p-11f));
+        assertEquals(0x3C02, VoiceCodec.toHalf(1f + 0x3p-11f));
+        assertEquals(0x3C01, VoiceCodec.toHalf(1f + 0x1.8p-11f));
+        assertEquals(-3f, VoiceCodec.toFloat(VoiceCodec.toHalf(-3f)), 0f);
+    }
+}
@@ -0,0 +1,123 @@
+package com.bank.bayan;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceVerificationPipelineTest {
+
+    private static final int DIMENSION = AdvancedVoiceAnalyzer.FEATURE_DIMENSION;
+    private static final int SPEAKERS = 30;
+    private static final int FRAMES = 200;
+
+    private final Random random = new Random(5);
+
+    // A synthetic voice: per-coefficient frame mean and spread around a shared average voice
+    private static class Speaker {
+        final float[] mean = new float[DIMENSION];
+        final float[] spread = new float[DIMENSION];
+    }
+
+    private Speaker[] speakers(int count) {
+        float[] averageMean = new float[DIMENSION];
+        float[] averageSpread = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            averageMean[d] = (float) random.nextGaussian() * 10f;
+            averageSpread[d] = 3f + random.nextFloat() * 3f;
+        }
+
+        Speaker[] speakers = new Speaker[count];
+        for (int s = 0; s < count; s++) {
+            speakers[s] = new Speaker();
+            for (int d = 0; d < DIMENSION; d++) {
+                speakers[s].mean[d] = averageMean[d] + (float) random.nextGaussian() * 3f;
+                speakers[s].spread[d] = averageSpread[d] * (float) Math.exp(random.nextGaussian() * 0.25);
+            }
+        }
+        return speakers;
+    }
+
+    private VoiceStatistics session(Speaker speaker) {
+        VoiceStatistics statistics = new VoiceStatistics(DIMENSION);
+        float[] frame = new float[DIMENSION];
+        for (int f = 0; f < FRAMES; f++) {
+            for (int d = 0; d < DIMENSION; d++) {
+                frame[d] = speaker.mean[d] + (float) random.nextGaussian() * speaker.spread[d];
+            }
+            statistics.add(frame);
+        }
+        return statistics;
+    }
+
+    private VoiceTemplate[] enroll(Speaker[] speakers, VoiceStatistics population) {
+        AdvancedVoiceAnalyzer analyzer = new AdvancedVoiceAnalyzer();
+        VoiceTemplate[] templates = new VoiceTemplate[speakers.length];
+        for (int s = 0; s < speakers.length; s++) {
+            templates[s] = analyzer.createVoiceTemplate(session(speakers[s]));
+            population.add(SpeakerIndex.pool(templates[s]));
+        }
+        return templates;
+    }
+
+    private void assertOnlyTheOwnerPasses(Speaker[] speakers, VoiceTemplate[] templates, SpeakerIndex index) {
+        for (int owner = 0; owner < speakers.length; owner++) {
+            VoiceVerificationPipeline.SpeakerScorer scorer =
+                    VoiceVerificationPipeline.forTemplate("u" + owner, templates[owner], index);
+
+            SpeakerIndex.Match genuine = scorer.score(session(speakers[owner]));
+            assertNotNull(genuine);
+            assertTrue("owner " + owner + " scored " + genuine.score,
+                    genuine.score >= VoiceVerificationPipeline.MIN_ACOUSTIC_SCORE);
+
+            for (int other = 0; other < speakers.length; other++) {
+                if (other == owner) {
+                    continue;
+                }
+                SpeakerIndex.Match impostor = scorer.score(session(speakers[other]));
+                assertNotNull(impostor);
+                assertTrue(other + " as " + owner + " scored " + impostor.score,
+                        impostor.score < VoiceVerificationPipeline.MIN_ACOUSTIC_SCORE);
+            }
+        }
+    }
+
+    @Test
+    public void templateScoreSeparatesSpeakersWithCalibratedIndex() {
+        Speaker[] speakers = speakers(SPEAKERS);
+        VoiceStatistics population = new VoiceStatistics(SpeakerIndex.EMBEDDING_DIMENSION);
+        VoiceTemplate[] templates = enroll(speakers, population);
+
+        SpeakerIndex index = new SpeakerIndex(population);
+        for (int s = 0; s < speakers.length; s++) {
+            index.put("u" + s, SpeakerIndex.pool(templates[s]));
+        }
+        assertNotNull(index.getImpostorScores());
+
+        assertOnlyTheOwnerPasses(speakers, templates, index);
+    }
+
+    @Test
+    public void templateScoreSeparatesSpeakersBeforeCalibration() {
+        Speaker[] speakers = speakers(SpeakerIndex.MIN_CALIBRATION_PROFILES - 1);
+        VoiceStatistics population = new VoiceStatistics(SpeakerIndex.EMBEDDING_DIMENSION);
+        VoiceTemplate[] templates = enroll(speakers, population);
+
+        SpeakerIndex index = new SpeakerIndex(population);
+        assertNull(index.getImpostorScores());
+
+        assertOnlyTheOwnerPasses(speakers, templates, index);
+    }
+
+    @Test
+    public void templateScoreNeedsFullFeatures() {
+        Speaker[] speakers = speakers(2);
+        VoiceStatistics population = new VoiceStatistics(SpeakerIndex.EMBEDDING_DIMENSION);
+        VoiceTemplate[] templates = enroll(speakers, population);
+
+        VoiceVerificationPipeline.SpeakerScorer scorer =
+                VoiceVerificationPipeline.forTemplate("u0", templates[0], new SpeakerIndex(population));
+        assertNull(scorer.score(new VoiceStatistics(DIMENSION)));
+    }
+}
@@ -0,0 +1,206 @@
+package com.bank.bayan.audio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    private static final int CAPACITY = 1024;
+    private static final int CHUNK = 128;
+
+    /**
+     * Records what a consumer receives; samples carry their own sequence number
+     * (mod 2^15) so order and gaps can be checked.
+     */
+    private static class RecordingConsumer implements PcmRingBuffer.Consumer {
+        final List<Short> received = new ArrayList<>();
+        final AtomicInteger ends = new AtomicInteger();
+        final CountDownLatch ended = new CountDownLatch(1);
+        final CountDownLatch firstChunk = new CountDownLatch(1);
+        final CountDownLatch release;
+        final long delayMs;
+        boolean ordered = true;
+
+        RecordingConsumer(CountDownLatch release, long delayMs) {
+            this.release = release;
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void onSamples(short[] samples, int length) {
+            for (int i = 0; i < length; i++) {
+                if (i > 0 && (short) (samples[i - 1] + 1) != samples[i]) {
+                    ordered = false;
+                }
+                received.add(samples[i]);
+            }
+            firstChunk.countDown();
+            try {
+                if (release != null) {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            ends.incrementAndGet();
+            ended.countDown();
+        }
+    }
+
+    private static void publishSequence(PcmRingBuffer ring, int from, int count, int chunk) {
+        short[] buffer = new short[chunk];
+        for (int offset = 0; offset < count; offset += chunk) {
+            int length = Math.min(chunk, count - offset);
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (short) (from + offset + i);
+            }
+            ring.publish(buffer, length);
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1024, new PcmRingBuffer(1000).getCapacity());
+        assertEquals(1024, new PcmRingBuffer(1024).getCapacity());
+    }
+
+    @Test
+    public void consumerStartsAtCurrentWriteSequence() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        publishSequence(ring, 0, 300, CHUNK);
+
+        RecordingConsumer consumer = new RecordingConsumer(null, 0);
+        PcmRingBuffer.Cursor cursor = ring.attach(consumer, "late", CHUNK);
+        assertEquals(300, cursor.getPosition());
+
+        publishSequence(ring, 300, 200, CHUNK);
+        ring.close();
+        assertTrue(ring.awaitConsumers(5000));
+
+        assertEquals(200, consumer.received.size());
+        assertEquals((short) 300, (short) consumer.received.get(0));
+        assertTrue(consumer.ordered);
+    }
+
+    @Test
+    public void slowConsumerDrainsEverythingAfterClose() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        RecordingConsumer consumer = new RecordingConsumer(null, 5);
+        PcmRingBuffer.Cursor cursor = ring.attach(consumer, "slow", CHUNK);
+
+        // Less than a full ring, so nothing may be lost however slow the consumer is
+        publishSequence(ring, 0, CAPACITY - CHUNK, 100);
+        ring.close();
+
+        assertTrue(ring.awaitConsumers(5000));
+        assertEquals(1, consumer.ends.get());
+        assertEquals(CAPACITY - CHUNK, consumer.received.size());
+        assertEquals(0, cursor.getOverrunSamples());
+        assertEquals(ring.getWriteSequence(), cursor.getPosition());
+        for (int i = 0; i < consumer.received.size(); i++) {
+            assertEquals((short) i, (short) consumer.received.get(i));
+        }
+    }
+
+    @Test
+    public void awaitConsumersTimesOutWhileConsumerIsStuck() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingConsumer consumer = new RecordingConsumer(release, 0);
+        ring.attach(consumer, "stuck", CHUNK);
+
+        publishSequence(ring, 0, 256, CHUNK);
+        assertTrue(consumer.firstChunk.await(5, TimeUnit.SECONDS));
+        ring.close();
+
+        assertFalse(ring.awaitConsumers(50));
+        assertEquals(0, consumer.ends.get());
+
+        release.countDown();
+        assertTrue(ring.awaitConsumers(5000));
+        assertEquals(1, consumer.ends.get());
+        assertEquals(256, consumer.received.size());
+    }
+
+    @Test
+    public void laggingConsumerIsMovedForwardAndOverrunIsCounted() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingConsumer consumer = new RecordingConsumer(release, 0);
+        PcmRingBuffer.Cursor cursor = ring.attach(consumer, "lagging", CHUNK);
+
+        publishSequence(ring, 0, CHUNK, CHUNK);
+        assertTrue(consumer.firstChunk.await(5, TimeUnit.SECONDS));
+
+        // The consumer is stuck in its first chunk while four rings' worth is published
+        int total = CHUNK + 4 * CAPACITY;
+        publishSequence(ring, CHUNK, total - CHUNK, 64);
+        assertTrue("cursor must be pulled to within one ring of the writer",
+                ring.getWriteSequence() - cursor.getPosition() <= CAPACITY);
+
+        release.countDown();
+        ring.close();
+        assertTrue(ring.awaitConsumers(5000));
+
+        // Everything published was either delivered or counted as overrun, exactly once
+        assertEquals(total, consumer.received.size() + cursor.getOverrunSamples());
+        assertTrue(cursor.getOverrunSamples() >= total - CHUNK - CAPACITY);
+        assertEquals(ring.getWriteSequence(), cursor.getPosition());
+
+        // After catching up the consumer sees the newest samples, in order
+        int size = consumer.received.size();
+        assertEquals((short) (total - 1), (short) consumer.received.get(size - 1));
+        assertTrue(consumer.ordered);
+    }
+
+    @Test
+    public void publishLargerThanCapacityKeepsNewestSamples() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        RecordingConsumer consumer = new RecordingConsumer(null, 0);
+        PcmRingBuffer.Cursor cursor = ring.attach(consumer, "burst", CAPACITY);
+
+        short[] burst = new short[CAPACITY + 100];
+        for (int i = 0; i < burst.length; i++) {
+            burst[i] = (short) i;
+        }
+        ring.publish(burst, burst.length);
+        ring.close();
+        assertTrue(ring.awaitConsumers(5000));
+
+        assertEquals(CAPACITY, ring.getWriteSequence());
+        assertEquals(CAPACITY, consumer.received.size() + cursor.getOverrunSamples());
+        assertEquals((short) (burst.length - 1), (short) consumer.received.get(consumer.received.size() - 1));
+    }
+
+    @Test
+    public void everyConsumerGetsItsOwnCopy() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(CAPACITY);
+        RecordingConsumer first = new RecordingConsumer(null, 0);
+        RecordingConsumer second = new RecordingConsumer(null, 1);
+        ring.attach(first, "first", CHUNK);
+        ring.attach(second, "second", 37);
+
+        publishSequence(ring, 0, 900, 90);
+        ring.close();
+        assertTrue(ring.awaitConsumers(5000));
+
+        assertEquals(900, first.received.size());
+        assertEquals(900, second.received.size());
+        assertTrue(first.ordered && second.ordered);
+        assertEquals(first.received, second.received);
+    }
+}
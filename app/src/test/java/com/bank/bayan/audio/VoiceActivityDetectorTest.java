@@ -0,0 +1,131 @@
+package com.bank.bayan.audio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+
+    private static final int SAMPLE_RATE = 16000;
+
+    private VoiceActivityDetector detector;
+    private final Random random = new Random(7);
+    private long samplesFed;
+    private long speechStartMs = -1;
+    private long speechEndMs = -1;
+    private int starts;
+    private int ends;
+
+    @Before
+    public void setUp() {
+        detector = new VoiceActivityDetector(new VoiceActivityDetector.VoiceActivityListener() {
+            @Override
+            public void onSpeechStart() {
+                starts++;
+                speechStartMs = samplesFed * 1000 / SAMPLE_RATE;
+            }
+
+            @Override
+            public void onSpeechEnd() {
+                ends++;
+                speechEndMs = samplesFed * 1000 / SAMPLE_RATE;
+            }
+
+            @Override
+            public void onSilenceDetected(long speechDurationMs) {
+            }
+        });
+    }
+
+    // Low zero-crossing tone, like a voiced vowel
+    private void speech(int ms, double amplitude) {
+        feed(ms, i -> amplitude * Math.sin(2 * Math.PI * 180 * i / SAMPLE_RATE) + random.nextGaussian() * 30);
+    }
+
+    // Broadband noise at the given standard deviation
+    private void noise(int ms, double level) {
+        feed(ms, i -> random.nextGaussian() * level);
+    }
+
+    private interface Signal {
+        double at(long sample);
+    }
+
+    private void feed(int ms, Signal signal) {
+        short[] buffer = new short[160];
+        int total = SAMPLE_RATE * ms / 1000;
+        for (int offset = 0; offset < total; offset += buffer.length) {
+            int length = Math.min(buffer.length, total - offset);
+            for (int i = 0; i < length; i++) {
+                double value = signal.at(samplesFed + i);
+                buffer[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            }
+            samplesFed += length;
+            detector.processAudioData(buffer, length);
+        }
+    }
+
+    @Test
+    public void detectsUtteranceInQuietRoom() {
+        noise(1000, 30);
+        speech(1000, 3000);
+        noise(1000, 30);
+
+        assertEquals(1, starts);
+        assertEquals(1, ends);
+        assertTrue(speechStartMs >= 1000 && speechStartMs < 1200);
+        assertTrue(speechEndMs >= 2000 && speechEndMs < 2500);
+    }
+
+    @Test
+    public void speechEndsWhenBackgroundNoiseJumps() {
+        noise(1000, 30);
+        speech(1000, 3000);
+        // A fan switches on as the user stops talking and stays on
+        noise(5000, 800);
+
+        assertEquals(1, starts);
+        assertEquals(1, ends);
+        assertTrue("speech should end within the floor window, ended at " + speechEndMs,
+                speechEndMs > 2000 && speechEndMs < 5000);
+        assertFalse(detector.isSpeaking());
+        assertTrue(detector.getNoiseFloor() > 300);
+    }
+
+    @Test
+    public void detectsSpeechAlreadyUnderwayWhenCaptureStarts() {
+        speech(800, 3000);
+        noise(300, 30);
+        speech(800, 3000);
+        noise(1000, 30);
+
+        assertTrue(starts >= 1);
+        assertTrue(ends >= 1);
+        assertFalse(detector.isSpeaking());
+        assertTrue(detector.getNoiseFloor() < 100);
+    }
+
+    @Test
+    public void shortBurstIsNotReportedAsSpeech() {
+        noise(1000, 30);
+        speech(100, 3000);
+        noise(1000, 30);
+
+        assertEquals(0, ends);
+    }
+
+    @Test
+    public void resetForgetsTheNoiseFloor() {
+        noise(2000, 800);
+        detector.reset();
+        assertEquals(0.0, detector.getNoiseFloor(), 0.0);
+
+        noise(1000, 30);
+        speech(1000, 3000);
+        noise(1000, 30);
+        assertEquals(1, ends);
+    }
+}